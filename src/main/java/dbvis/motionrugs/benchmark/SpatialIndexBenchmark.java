@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.benchmark;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Point;
+import dbvis.motionrugs.strategies.GridIndex;
+import dbvis.motionrugs.strategies.PointQuadTree;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the GridIndex with the PointQuadTree and the R-tree used by the
+ * strategies: building the index for a frame, radius queries and k nearest
+ * neighbor queries. The PointQuadTree has no nearest neighbor query.
+ *
+ * Usage: SpatialIndexBenchmark [points per frame...]
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class SpatialIndexBenchmark {
+
+    private static final int QUERIES = 10000;
+    private static final int NEIGHBORS = 8;
+    //expected number of points within the query radius
+    private static final int RADIUS_POINTS = 10;
+    private static final int EXTENT = 1000000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("points,index,build ms,radius ms,knn ms,checksum");
+        for (int n : sizes) {
+            //the first round warms up the JIT
+            for (int round = 0; round < ROUNDS; round++) {
+                run(n, round == ROUNDS - 1);
+            }
+        }
+    }
+
+    private static void run(int n, boolean print) {
+        Random random = new Random(n);
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            //integer coordinates, as the PointQuadTree uses them
+            xs[i] = random.nextInt(EXTENT);
+            ys[i] = random.nextInt(EXTENT);
+        }
+        double radius = Math.sqrt(RADIUS_POINTS * (double) EXTENT * EXTENT / (Math.PI * n));
+        int queries = Math.min(n, QUERIES);
+
+        //grid
+        long start = System.nanoTime();
+        GridIndex grid = new GridIndex();
+        grid.build(xs, ys, n, radius);
+        long build = System.nanoTime() - start;
+        start = System.nanoTime();
+        long checksum = 0;
+        int[] found = new int[64];
+        for (int q = 0; q < queries; q++) {
+            checksum += grid.radius(xs[q], ys[q], radius, found);
+        }
+        long radiusTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        int[] nearest = new int[NEIGHBORS];
+        double[] distances = new double[NEIGHBORS];
+        for (int q = 0; q < queries; q++) {
+            checksum += grid.nearest(xs[q], ys[q], -1, nearest, distances);
+        }
+        long knnTime = System.nanoTime() - start;
+        print(print, n, "GridIndex", build, radiusTime, knnTime, checksum);
+
+        //point quadtree
+        start = System.nanoTime();
+        PointQuadTree<Integer> quadTree = new PointQuadTree<>();
+        for (int i = 0; i < n; i++) {
+            quadTree.insert(new java.awt.Point((int) xs[i], (int) ys[i]), i);
+        }
+        build = System.nanoTime() - start;
+        start = System.nanoTime();
+        checksum = 0;
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int q = 0; q < queries; q++) {
+            candidates.clear();
+            quadTree.query((int) Math.floor(xs[q] - radius), (int) Math.floor(ys[q] - radius), (int) Math.ceil(xs[q] + radius), (int) Math.ceil(ys[q] + radius), candidates);
+            for (int i : candidates) {
+                double dx = xs[i] - xs[q];
+                double dy = ys[i] - ys[q];
+                if (dx * dx + dy * dy <= radius * radius) {
+                    checksum++;
+                }
+            }
+        }
+        radiusTime = System.nanoTime() - start;
+        print(print, n, "PointQuadTree", build, radiusTime, -1, checksum);
+
+        //R-tree, built like in the RTreeStrategy
+        start = System.nanoTime();
+        RTree<Integer, Point> tree = RTree.star().minChildren(15).maxChildren(30).create();
+        for (int i = 0; i < n; i++) {
+            tree = tree.add(i, Geometries.point(xs[i], ys[i]));
+        }
+        build = System.nanoTime() - start;
+        start = System.nanoTime();
+        checksum = 0;
+        for (int q = 0; q < queries; q++) {
+            checksum += tree.search(Geometries.point(xs[q], ys[q]), radius).count().toBlocking().single();
+        }
+        radiusTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            List<Entry<Integer, Point>> list = tree.nearest(Geometries.point(xs[q], ys[q]), Double.MAX_VALUE, NEIGHBORS).toList().toBlocking().single();
+            checksum += list.size();
+        }
+        knnTime = System.nanoTime() - start;
+        print(print, n, "R-Tree", build, radiusTime, knnTime, checksum);
+    }
+
+    private static void print(boolean print, int n, String index, long build, long radius, long knn, long checksum) {
+        if (print) {
+            System.out.println(n + "," + index + "," + build / 1e6 + "," + radius / 1e6 + "," + (knn < 0 ? "" : Double.toString(knn / 1e6)) + "," + checksum);
+        }
+    }
+
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.benchmark;
+
+import dbvis.motionrugs.data.BinaryColumnStore;
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.LazyDataSet;
+import dbvis.motionrugs.strategies.GridIndex;
+import dbvis.motionrugs.strategies.Strategies;
+import dbvis.motionrugs.strategies.Strategy;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Measures speed and quality of the strategies. For every dataset and
+ * strategy, it reports:
+ * <ul>
+ * <li>frames per second and ms per run, the best of several runs</li>
+ * <li>bytes allocated by all threads per run and per second</li>
+ * <li>stability of consecutive frames: Kendall tau of the ranks of the movers
+ * in both frames (1 for the same order) and the mean number of rows a mover
+ * moves</li>
+ * <li>spatial locality: the mean distance of movers adjacent in the rug over
+ * the mean distance to the nearest mover (1 at best), and the share of movers
+ * whose nearest mover is at most WINDOW rows away</li>
+ * </ul>
+ * The metrics are computed in parallel over frames.
+ *
+ * Usage: StrategyBenchmark [-rounds n] [-format csv|json] [-out file]
+ * [-strategies name,name...] [dataset...]. Datasets are csv files or
+ * synthetic:FRAMESxMOVERS for a generated swarm, by default
+ * synthetic:1000x1000.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class StrategyBenchmark {
+
+    /**
+     * Rows within which the nearest mover counts as preserved
+     */
+    public static final int WINDOW = 2;
+    private static final int DEFAULT_ROUNDS = 3;
+    private static final String[] COLUMNS = {"dataset", "frames", "movers", "strategy", "frames/s", "ms", "alloc MB", "alloc MB/s",
+        "kendall tau", "rank displacement", "adjacent distance ratio", "nearest kept"};
+
+    /**
+     * The results of one strategy on one dataset
+     */
+    public static class Result {
+
+        public String dataset;
+        public int frames;
+        public int movers;
+        public String strategy;
+        public double framesPerSecond;
+        public double millis;
+        public double allocatedMB;
+        public double kendallTau;
+        public double rankDisplacement;
+        public double adjacentDistanceRatio;
+        public double nearestKept;
+
+        Object[] values() {
+            return new Object[]{dataset, frames, movers, strategy, framesPerSecond, millis, allocatedMB, allocatedMB * 1000 / millis,
+                kendallTau, rankDisplacement, adjacentDistanceRatio, nearestKept};
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = DEFAULT_ROUNDS;
+        boolean json = false;
+        PrintStream out = System.out;
+        List<String> names = null;
+        List<String> datasets = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-rounds":
+                    rounds = Integer.parseInt(args[++i]);
+                    break;
+                case "-format":
+                    json = args[++i].equalsIgnoreCase("json");
+                    break;
+                case "-out":
+                    out = new PrintStream(new File(args[++i]), "UTF-8");
+                    break;
+                case "-strategies":
+                    names = Arrays.asList(args[++i].split(","));
+                    break;
+                default:
+                    datasets.add(args[i]);
+            }
+        }
+        if (datasets.isEmpty()) {
+            datasets.add("synthetic:1000x1000");
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (String dataset : datasets) {
+            DataPoint[][] frames = load(dataset);
+            for (Strategy strategy : strategies()) {
+                if (names == null || names.contains(strategy.getName())) {
+                    Result result = run(dataset, frames, strategy, rounds);
+                    System.err.println(result.strategy + " on " + dataset + ": " + format(result.framesPerSecond) + " frames/s");
+                    results.add(result);
+                }
+            }
+        }
+        if (json) {
+            writeJSON(results, out);
+        } else {
+            writeCSV(results, out);
+        }
+        out.flush();
+        if (out != System.out) {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the strategies of the GUI, configured as there
+     */
+    public static List<Strategy> strategies() {
+        return Strategies.createAll();
+    }
+
+    /**
+     * Orders the frames rounds times with the strategy and rates the last
+     * ordering
+     *
+     * @param dataset the name of the dataset
+     * @param frames the frames
+     * @param strategy the strategy
+     * @param rounds the number of runs, the first one warms up the JIT
+     * @return the results
+     */
+    public static Result run(String dataset, DataPoint[][] frames, Strategy strategy, int rounds) {
+        Result result = new Result();
+        result.dataset = dataset;
+        result.frames = frames.length;
+        result.strategy = strategy.getName();
+        for (DataPoint[] frame : frames) {
+            result.movers = Math.max(result.movers, frame.length);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        DataPoint[][] ordered = null;
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int round = 0; round < Math.max(2, rounds); round++) {
+            long before = allocatedBytes(threads);
+            long start = System.nanoTime();
+            ordered = strategy.getOrderedValues(frames);
+            long time = System.nanoTime() - start;
+            long bytes = allocatedBytes(threads) - before;
+            if (round > 0 && time < best) {
+                best = time;
+                allocated = bytes;
+            }
+        }
+        result.millis = best / 1e6;
+        result.framesPerSecond = frames.length / (best / 1e9);
+        result.allocatedMB = allocated / 1e6;
+        rate(ordered, result);
+        return result;
+    }
+
+    /**
+     * Sums the bytes allocated by all live threads. Threads ending during a
+     * run are not counted, the pools of the strategies keep their threads.
+     */
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long sum = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                sum += bytes;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the stability and locality metrics of an ordering
+     */
+    private static void rate(DataPoint[][] ordered, Result result) {
+        int frames = ordered.length;
+        int maxId = 0;
+        int[][] ids = new int[frames][];
+        double[][] xs = new double[frames][];
+        double[][] ys = new double[frames][];
+        for (int x = 0; x < frames; x++) {
+            int n = ordered[x].length;
+            ids[x] = new int[n];
+            xs[x] = new double[n];
+            ys[x] = new double[n];
+            for (int y = 0; y < n; y++) {
+                ids[x][y] = ordered[x][y].getId();
+                xs[x][y] = ordered[x][y].getX();
+                ys[x][y] = ordered[x][y].getY();
+                maxId = Math.max(maxId, ids[x][y]);
+            }
+        }
+
+        final int idCount = maxId + 1;
+        double[] tau = new double[frames];
+        double[] displacement = new double[frames];
+        double[] ratio = new double[frames];
+        double[] kept = new double[frames];
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(idCount));
+        IntStream.range(0, frames).parallel().forEach(x -> {
+            Scratch s = scratch.get();
+            if (x + 1 < frames) {
+                stability(ids[x], ids[x + 1], s, tau, displacement, x);
+            }
+            locality(xs[x], ys[x], s, ratio, kept, x);
+        });
+
+        result.kendallTau = mean(tau, frames - 1);
+        result.rankDisplacement = mean(displacement, frames - 1);
+        result.adjacentDistanceRatio = mean(ratio, frames);
+        result.nearestKept = mean(kept, frames);
+    }
+
+    /**
+     * Per thread buffers of the metrics
+     */
+    private static final class Scratch {
+
+        final int[] rank;
+        int[] sequence = new int[0];
+        int[] merge = new int[0];
+        final GridIndex grid = new GridIndex();
+        final int[] nearest = new int[1];
+        final double[] distances = new double[1];
+
+        Scratch(int ids) {
+            rank = new int[ids];
+            Arrays.fill(rank, -1);
+        }
+
+        void ensure(int n) {
+            if (sequence.length < n) {
+                sequence = new int[n];
+                merge = new int[n];
+            }
+        }
+    }
+
+    /**
+     * Kendall tau and mean rank displacement of the movers in both frames
+     */
+    private static void stability(int[] first, int[] second, Scratch s, double[] tau, double[] displacement, int x) {
+        for (int y = 0; y < second.length; y++) {
+            s.rank[second[y]] = y;
+        }
+        s.ensure(first.length);
+        //ranks in the second frame, in the order of the first
+        int common = 0;
+        long moved = 0;
+        for (int y = 0; y < first.length; y++) {
+            int rank = s.rank[first[y]];
+            if (rank >= 0) {
+                s.sequence[common++] = rank;
+                moved += Math.abs(rank - y);
+            }
+        }
+        for (int y = 0; y < second.length; y++) {
+            s.rank[second[y]] = -1;
+        }
+        if (common < 2) {
+            tau[x] = Double.NaN;
+            displacement[x] = Double.NaN;
+            return;
+        }
+        long pairs = (long) common * (common - 1) / 2;
+        long discordant = inversions(s.sequence, s.merge, common);
+        tau[x] = 1 - 2.0 * discordant / pairs;
+        displacement[x] = (double) moved / common;
+    }
+
+    /**
+     * Counts the inversions of a sequence of distinct values with a bottom
+     * up merge sort, O(n log n)
+     */
+    static long inversions(int[] values, int[] buffer, int n) {
+        long inversions = 0;
+        int[] from = values;
+        int[] to = buffer;
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int mid = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                int i = low;
+                int j = mid;
+                int k = low;
+                while (i < mid && j < high) {
+                    if (from[i] <= from[j]) {
+                        to[k++] = from[i++];
+                    } else {
+                        inversions += mid - i;
+                        to[k++] = from[j++];
+                    }
+                }
+                while (i < mid) {
+                    to[k++] = from[i++];
+                }
+                while (j < high) {
+                    to[k++] = from[j++];
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        return inversions;
+    }
+
+    /**
+     * Adjacent distance ratio and the share of nearest movers within WINDOW
+     * rows
+     */
+    private static void locality(double[] xs, double[] ys, Scratch s, double[] ratio, double[] kept, int x) {
+        int n = xs.length;
+        if (n < 2) {
+            ratio[x] = Double.NaN;
+            kept[x] = Double.NaN;
+            return;
+        }
+        double adjacent = 0;
+        for (int y = 0; y + 1 < n; y++) {
+            adjacent += Math.hypot(xs[y + 1] - xs[y], ys[y + 1] - ys[y]);
+        }
+        s.grid.build(xs, ys, n);
+        double nearest = 0;
+        int close = 0;
+        for (int y = 0; y < n; y++) {
+            s.grid.nearest(xs[y], ys[y], y, s.nearest, s.distances);
+            nearest += Math.sqrt(s.distances[0]);
+            if (Math.abs(s.nearest[0] - y) <= WINDOW) {
+                close++;
+            }
+        }
+        adjacent /= n - 1;
+        nearest /= n;
+        ratio[x] = nearest > 0 ? adjacent / nearest : Double.NaN;
+        kept[x] = (double) close / n;
+    }
+
+    /**
+     * @return the mean of the first n values, skipping NaN
+     */
+    private static double mean(double[] values, int n) {
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i])) {
+                sum += values[i];
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Loads a csv file through its column store or generates a synthetic
+     * dataset
+     *
+     * @param dataset the file or synthetic:FRAMESxMOVERS
+     * @return the frames
+     * @throws IOException if the file could not be read
+     */
+    public static DataPoint[][] load(String dataset) throws IOException {
+        if (dataset.startsWith("synthetic:")) {
+            String[] size = dataset.substring("synthetic:".length()).split("x");
+            return synthetic(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 0);
+        }
+        File file = new File(dataset);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(dataset);
+        }
+        BinaryColumnStore store = BinaryColumnStore.isCurrent(file) ? BinaryColumnStore.open(file) : BinaryColumnStore.convert(file);
+        return new LazyDataSet(store, file.getName()).getBaseData();
+    }
+
+    /**
+     * Generates a swarm of movers turning slowly and bouncing off the borders
+     * of a square
+     *
+     * @param frames the number of frames
+     * @param movers the number of movers
+     * @param seed the seed of the random numbers
+     * @return the frames
+     */
+    public static DataPoint[][] synthetic(int frames, int movers, long seed) {
+        Random random = new Random(seed);
+        double extent = Math.sqrt(movers) * 10;
+        double[] x = new double[movers];
+        double[] y = new double[movers];
+        double[] heading = new double[movers];
+        for (int m = 0; m < movers; m++) {
+            x[m] = random.nextDouble() * extent;
+            y[m] = random.nextDouble() * extent;
+            heading[m] = random.nextDouble() * 2 * Math.PI;
+        }
+        DataPoint[][] data = new DataPoint[frames][movers];
+        for (int f = 0; f < frames; f++) {
+            for (int m = 0; m < movers; m++) {
+                heading[m] += random.nextGaussian() * 0.1;
+                x[m] += Math.cos(heading[m]);
+                y[m] += Math.sin(heading[m]);
+                if (x[m] < 0 || x[m] > extent) {
+                    heading[m] = Math.PI - heading[m];
+                    x[m] = Math.max(0, Math.min(extent, x[m]));
+                }
+                if (y[m] < 0 || y[m] > extent) {
+                    heading[m] = -heading[m];
+                    y[m] = Math.max(0, Math.min(extent, y[m]));
+                }
+                data[f][m] = new DataPoint(x[m], y[m], m);
+            }
+        }
+        return data;
+    }
+
+    private static void writeCSV(List<Result> results, PrintStream out) {
+        out.println(String.join(",", COLUMNS));
+        for (Result result : results) {
+            Object[] values = result.values();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(values[i] instanceof Double ? format((Double) values[i]) : quote(values[i].toString(), '"'));
+            }
+            out.println(line);
+        }
+    }
+
+    private static void writeJSON(List<Result> results, PrintStream out) {
+        out.println("[");
+        for (int r = 0; r < results.size(); r++) {
+            Object[] values = results.get(r).values();
+            StringBuilder line = new StringBuilder("  {");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(", ");
+                }
+                line.append('"').append(COLUMNS[i]).append("\": ");
+                if (values[i] instanceof Double) {
+                    double value = (Double) values[i];
+                    line.append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : format(value));
+                } else if (values[i] instanceof Integer) {
+                    line.append(values[i]);
+                } else {
+                    line.append('"').append(values[i].toString().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                }
+            }
+            line.append(r + 1 < results.size() ? "}," : "}");
+            out.println(line);
+        }
+        out.println("]");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+
+    /**
+     * Quotes values containing commas or quotes for csv
+     */
+    private static String quote(String value, char quote) {
+        if (value.indexOf(',') < 0 && value.indexOf(quote) < 0) {
+            return value;
+        }
+        return quote + value.replace(String.valueOf(quote), String.valueOf(quote) + quote) + quote;
+    }
+
+}
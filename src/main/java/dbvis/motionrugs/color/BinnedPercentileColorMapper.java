@@ -29,12 +29,18 @@ public class BinnedPercentileColorMapper implements ColorMapper {
     private double max;
     private Double[] percentiles;
     private Color[] colors;
+    //unboxed percentiles for the bin search
+    private double[] thresholds;
 
     public BinnedPercentileColorMapper(Double[] percentiles, double min, double max, Color[] colors) {
         this.min = min;
         this.max = max;
         this.percentiles = percentiles;
         this.colors = colors;
+        this.thresholds = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            thresholds[i] = percentiles[i];
+        }
     }
 
     @Override
@@ -46,21 +52,32 @@ public class BinnedPercentileColorMapper implements ColorMapper {
         return colors[searchBin(value)];
     }
 
-    public int searchBin(double value) throws Exception {
-        if (value <= percentiles[0]) {
-            return 0;
-        }
-        if (value > percentiles[percentiles.length - 1]) {
-            return percentiles.length;
+    /**
+     * Returns the index of the bin containing the value, i.e. the number of
+     * percentiles below the value
+     *
+     * @param value the value
+     * @return the bin index, from 0 to the number of percentiles
+     */
+    public int searchBin(double value) {
+        //branch-free count, the few bins make this faster than a binary search
+        int bin = 0;
+        for (int i = 0; i < thresholds.length; i++) {
+            bin += thresholds[i] < value ? 1 : 0;
         }
+        return bin;
+    }
 
-        for (int i = 0; i < percentiles.length; i++) {
+    public double getMin() {
+        return min;
+    }
 
-            if (value > percentiles[i] && value <= percentiles[i + 1]) {
-                return i + 1;
-            }
-        }
-        return -1;
+    public double getMax() {
+        return max;
+    }
+
+    public Color[] getColors() {
+        return colors;
     }
 
 }
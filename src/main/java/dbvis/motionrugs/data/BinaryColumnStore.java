@@ -0,0 +1,429 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Binary copy of a CSV dataset with one file per column, kept in the folder
+ * name.columns next to the CSV file. Values are stored frame by frame, mover
+ * by mover, so the value of mover m in frame f is at f * movers + m. The
+ * folder also holds a columns.properties with the dimensions, the features and
+ * their min, max and sketched deciles (see QuantileSketch), written last so an
+ * incomplete conversion is not taken for a store. Features of DerivedFeatures missing in the CSV are
+ * derived from the positions during the conversion and stored like the other
+ * features.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class BinaryColumnStore {
+
+    /**
+     * Suffix of the store folders
+     */
+    public static final String SUFFIX = ".columns";
+
+    private static final String PROPERTIES = "columns.properties";
+
+    //number of points per block of derived features
+    private static final int DERIVE_BLOCK_POINTS = 1 << 22;
+
+    private final File folder;
+    private final int frames;
+    private final int movers;
+    private final ByteOrder order;
+    private final List<String> header;
+    private final List<String> features;
+    private final HashMap<String, Double> featureMins = new HashMap<>();
+    private final HashMap<String, Double> featureMaxs = new HashMap<>();
+    private final HashMap<String, Double[]> deciles = new HashMap<>();
+
+    private BinaryColumnStore(File folder, Properties properties) throws IOException {
+        this.folder = folder;
+        this.frames = Integer.parseInt(properties.getProperty("frames"));
+        this.movers = Integer.parseInt(properties.getProperty("movers"));
+        this.order = properties.getProperty("byteorder").equals(ByteOrder.BIG_ENDIAN.toString()) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.header = getList(properties, "header");
+        this.features = new ArrayList<>();
+        for (String feature : header) {
+            if (isStandard(feature)) {
+                continue;
+            }
+            features.add(feature);
+            featureMins.put(feature, Double.parseDouble(properties.getProperty(feature + ".min")));
+            featureMaxs.put(feature, Double.parseDouble(properties.getProperty(feature + ".max")));
+            String[] decs = properties.getProperty(feature + ".deciles").split(",");
+            Double[] decilesarr = new Double[decs.length];
+            for (int j = 0; j < decs.length; j++) {
+                decilesarr[j] = Double.parseDouble(decs[j]);
+            }
+            deciles.put(feature, decilesarr);
+        }
+    }
+
+    /**
+     * @param csv a CSV dataset
+     * @return the folder of the store of the dataset
+     */
+    public static File folderFor(File csv) {
+        return new File(csv.getAbsoluteFile().getParentFile(), csv.getName().replace(".csv", "") + SUFFIX);
+    }
+
+    /**
+     * @param csv a CSV dataset
+     * @return true if the dataset has a complete store converted from its
+     * current version, with the derived features currently missing in it
+     */
+    public static boolean isCurrent(File csv) {
+        File properties = new File(folderFor(csv), PROPERTIES);
+        if (!properties.isFile()) {
+            return false;
+        }
+        try {
+            Properties p = load(properties);
+            List<String> header = getList(p, "header");
+            List<String> derived = getList(p, "derived");
+            if (header == null || derived == null) {
+                return false;
+            }
+            //derived with the current -Dmotionrugs.derive setting
+            List<String> parsed = new ArrayList<>(header);
+            parsed.removeAll(derived);
+            return DerivedFeatures.missing(parsed).equals(derived)
+                    && Long.parseLong(p.getProperty("source.length", "-1")) == csv.length()
+                    && Long.parseLong(p.getProperty("source.modified", "-1")) == csv.lastModified();
+        } catch (IOException | NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the store of a dataset
+     *
+     * @param csv the CSV dataset
+     * @return the store
+     * @throws IOException if there is no complete store
+     */
+    public static BinaryColumnStore open(File csv) throws IOException {
+        File folder = folderFor(csv);
+        return new BinaryColumnStore(folder, load(new File(folder, PROPERTIES)));
+    }
+
+    /**
+     * Converts a CSV dataset (see CSVDataSet for the format) into a store. The
+     * CSV is read twice, once for the dimensions and once for the values,
+     * without holding its records in memory.
+     *
+     * @param csv the CSV dataset
+     * @return the store
+     * @throws IOException if the CSV could not be read or the store not be
+     * written
+     */
+    public static BinaryColumnStore convert(File csv) throws IOException {
+        File folder = folderFor(csv);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder);
+        }
+        File propertiesFile = new File(folder, PROPERTIES);
+        propertiesFile.delete();
+
+        //first pass: dimensions
+        int maxFrame = -1;
+        int maxId = -1;
+        List<String> header;
+        try (Reader in = new FileReader(csv); CSVParser parser = new CSVParser(in, CSVFormat.RFC4180.withFirstRecordAsHeader())) {
+            header = new ArrayList<>(parser.getHeaderMap().keySet());
+            for (CSVRecord csvr : parser) {
+                maxFrame = Math.max(maxFrame, Integer.parseInt(csvr.get("frame")));
+                maxId = Math.max(maxId, Integer.parseInt(csvr.get("id")));
+            }
+        }
+        int frames = maxFrame + 1;
+        int movers = maxId + 1;
+        long points = (long) frames * movers;
+        System.out.println("Converting " + csv.getName() + ": " + movers + " movers in " + frames + " frames.");
+
+        //second pass: values, written in place
+        ByteOrder order = ByteOrder.nativeOrder();
+        ArrayList<String> features = new ArrayList<>();
+        for (String feature : header) {
+            if (!isStandard(feature)) {
+                features.add(feature);
+            }
+        }
+        List<String> derived = DerivedFeatures.missing(header);
+        int parsed = features.size();
+        features.addAll(derived);
+        header.addAll(derived);
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        FeatureStatistics statistics = new FeatureStatistics();
+        ColumnFile xs = ColumnFile.create(new File(folder, "x.bin"), points, 8, order);
+        ColumnFile ys = ColumnFile.create(new File(folder, "y.bin"), points, 8, order);
+        ColumnFile ids = ColumnFile.create(new File(folder, "id.bin"), points, 4, order);
+        ColumnFile[] columns = new ColumnFile[features.size()];
+        try {
+            for (int f = 0; f < columns.length; f++) {
+                columns[f] = ColumnFile.create(columnFile(folder, features.get(f)), points, 8, order);
+            }
+            //points missing in the CSV keep id -1
+            for (long i = 0; i < points; i++) {
+                ids.putInt(i, -1);
+            }
+            try (Reader in = new FileReader(csv); CSVParser parser = new CSVParser(in, CSVFormat.RFC4180.withFirstRecordAsHeader())) {
+                for (CSVRecord csvr : parser) {
+                    int id = Integer.parseInt(csvr.get("id"));
+                    long index = (long) Integer.parseInt(csvr.get("frame")) * movers + id;
+                    double x = Double.parseDouble(csvr.get("x"));
+                    double y = Double.parseDouble(csvr.get("y"));
+                    xs.putDouble(index, x);
+                    ys.putDouble(index, y);
+                    ids.putInt(index, id);
+                    bounds[0] = Math.min(bounds[0], x);
+                    bounds[1] = Math.min(bounds[1], y);
+                    bounds[2] = Math.max(bounds[2], x);
+                    bounds[3] = Math.max(bounds[3], y);
+                    for (int f = 0; f < parsed; f++) {
+                        double value = Double.parseDouble(csvr.get(features.get(f)));
+                        columns[f].putDouble(index, value);
+                        statistics.add(features.get(f), value);
+                    }
+                }
+            }
+            if (!derived.isEmpty()) {
+                derive(frames, movers, xs, ys, ids, new DerivedFeatures(DerivedFeatures.defaultRadius(bounds, movers)), derived, Arrays.copyOfRange(columns, parsed, columns.length), statistics);
+            }
+        } finally {
+            xs.close();
+            ys.close();
+            ids.close();
+            for (ColumnFile column : columns) {
+                if (column != null) {
+                    column.close();
+                }
+            }
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("frames", Integer.toString(frames));
+        properties.setProperty("movers", Integer.toString(movers));
+        properties.setProperty("byteorder", order.toString());
+        putList(properties, "header", header);
+        putList(properties, "derived", derived);
+        properties.setProperty("source.length", Long.toString(csv.length()));
+        properties.setProperty("source.modified", Long.toString(csv.lastModified()));
+        for (String feature : features) {
+            properties.setProperty(feature + ".min", Double.toString(statistics.getMin(feature)));
+            properties.setProperty(feature + ".max", Double.toString(statistics.getMax(feature)));
+            StringBuilder decs = new StringBuilder();
+            for (Double d : statistics.getDeciles(feature)) {
+                decs.append(decs.length() > 0 ? "," : "").append(d);
+            }
+            properties.setProperty(feature + ".deciles", decs.toString());
+        }
+        try (OutputStream out = new FileOutputStream(propertiesFile)) {
+            properties.store(out, "MotionRugs column store of " + csv.getName());
+        }
+        return new BinaryColumnStore(folder, properties);
+    }
+
+    /**
+     * Derives features block by block of frames, so only one block of
+     * positions is in memory
+     */
+    private static void derive(int frames, int movers, ColumnFile xs, ColumnFile ys, ColumnFile ids, DerivedFeatures derivation, List<String> derived, ColumnFile[] columns, FeatureStatistics statistics) {
+        long start = System.currentTimeMillis();
+        int block = Math.max(1, DERIVE_BLOCK_POINTS / Math.max(1, movers));
+        for (int from = 0; from < frames; from += block) {
+            int to = Math.min(frames, from + block);
+            int history = Math.min(DerivedFeatures.HISTORY, from);
+            //one frame more than the block, for the speed of the first frame
+            int end = Math.min(frames, to + 1);
+            long first = (long) (from - history) * movers;
+            int points = (end - from + history) * movers;
+            double[] x = new double[points];
+            double[] y = new double[points];
+            int[] id = new int[points];
+            xs.getDoubles(first, x, 0, points);
+            ys.getDoubles(first, y, 0, points);
+            for (int i = 0; i < points; i++) {
+                id[i] = ids.getInt(first + i);
+            }
+            double[][] out = new double[derived.size()][(to - from) * movers];
+            derivation.compute(movers, history, to - from, x, y, id, derived, out);
+            for (int k = 0; k < out.length; k++) {
+                for (int i = 0; i < out[k].length; i++) {
+                    //missing points are not part of the statistics
+                    if (id[history * movers + i] >= 0) {
+                        columns[k].putDouble((long) from * movers + i, out[k][i]);
+                        statistics.add(derived.get(k), out[k][i]);
+                    }
+                }
+            }
+        }
+        System.out.println("Derived " + derived + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    /**
+     * Column names may contain any character, so lists are stored with one
+     * key per element
+     */
+    private static void putList(Properties properties, String key, List<String> list) {
+        properties.setProperty(key + ".count", Integer.toString(list.size()));
+        for (int i = 0; i < list.size(); i++) {
+            properties.setProperty(key + "." + i, list.get(i));
+        }
+    }
+
+    /**
+     * @return the list stored with putList, null if there is none
+     */
+    private static List<String> getList(Properties properties, String key) {
+        String count = properties.getProperty(key + ".count");
+        if (count == null) {
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < Integer.parseInt(count); i++) {
+            list.add(properties.getProperty(key + "." + i));
+        }
+        return list;
+    }
+
+    private static boolean isStandard(String feature) {
+        return feature.equals("frame") || feature.equals("id") || feature.equals("x") || feature.equals("y");
+    }
+
+    /**
+     * Feature names may contain characters not allowed in file names
+     */
+    private static File columnFile(File folder, String column) {
+        StringBuilder name = new StringBuilder("f_");
+        for (char c : column.toCharArray()) {
+            name.append(Character.isLetterOrDigit(c) ? Character.toString(c) : String.format("_%04x", (int) c));
+        }
+        return new File(folder, name.append(".bin").toString());
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getMovers() {
+        return movers;
+    }
+
+    /**
+     * @return all columns of the CSV header, including frame, id, x and y
+     */
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the feature columns, without frame, id, x and y
+     */
+    public List<String> getFeatures() {
+        return features;
+    }
+
+    public double getMin(String feature) {
+        return featureMins.get(feature);
+    }
+
+    public double getMax(String feature) {
+        return featureMaxs.get(feature);
+    }
+
+    public Double[] getDeciles(String feature) {
+        return deciles.get(feature);
+    }
+
+    /**
+     * Opens a column for reading. Positions are read from the columns x and
+     * y, ids from id, features by their name.
+     *
+     * @param column the column
+     * @return the column file
+     * @throws IOException if the column could not be opened
+     */
+    ColumnFile openColumn(String column) throws IOException {
+        long points = (long) frames * movers;
+        if (column.equals("id")) {
+            return ColumnFile.open(new File(folder, "id.bin"), points, 4, order);
+        }
+        if (column.equals("x") || column.equals("y")) {
+            return ColumnFile.open(new File(folder, column + ".bin"), points, 8, order);
+        }
+        return ColumnFile.open(columnFile(folder, column), points, 8, order);
+    }
+
+    /**
+     * Reads a whole column into memory
+     *
+     * @param column the column, x, y or a feature
+     * @return the values of the column
+     * @throws IOException if the column could not be read
+     */
+    public double[] readColumn(String column) throws IOException {
+        try (ColumnFile file = openColumn(column)) {
+            double[] values = new double[Math.toIntExact(file.length())];
+            file.getDoubles(0, values, 0, values.length);
+            return values;
+        }
+    }
+
+    /**
+     * Reads the mover ids into memory, -1 for points missing in the CSV
+     *
+     * @return the ids of the points
+     * @throws IOException if the ids could not be read
+     */
+    public int[] readIds() throws IOException {
+        try (ColumnFile file = openColumn("id")) {
+            int[] values = new int[Math.toIntExact(file.length())];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = file.getInt(i);
+            }
+            return values;
+        }
+    }
+
+}
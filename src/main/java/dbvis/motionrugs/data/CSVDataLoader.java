@@ -32,7 +32,6 @@ import java.util.logging.Logger;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.math3.stat.StatUtils;
 
 /**
  * Loads the datasets in a specified folder. Checks the specified folder for CSV
@@ -45,6 +44,9 @@ import org.apache.commons.math3.stat.StatUtils;
  */
 public class CSVDataLoader {
 
+    //heap taken by a DataPoint and its reference, without feature values
+    private static final long BYTES_PER_POINT = 64;
+
     public static void checkAndLoadCSVDataSets(String[] datapath) {
         File folder;
         String localdir = "./data";
@@ -78,12 +80,35 @@ public class CSVDataLoader {
         }
     }
 
+    /**
+     * Opens a dataset from its BinaryColumnStore, converting the CSV first if
+     * the store is missing or outdated. Feature values are only read when
+     * needed (see LazyDataSet). Datasets whose points would take up more than
+     * a quarter of the heap are kept in the mapped files (see MappedDataSet),
+     * which can be forced with -Dmotionrugs.storage=mapped. If no store can be
+     * written, the CSV is loaded into memory.
+     */
     private static void loadFile(File file) {
+        try {
+            BinaryColumnStore store = BinaryColumnStore.isCurrent(file) ? BinaryColumnStore.open(file) : BinaryColumnStore.convert(file);
+            System.out.println("Dataset size:" + store.getMovers() + " movers in " + store.getFrames() + " frames.");
+            long points = (long) store.getFrames() * store.getMovers();
+            if ("mapped".equals(System.getProperty("motionrugs.storage")) || points * BYTES_PER_POINT > Runtime.getRuntime().maxMemory() / 4) {
+                System.out.println("Keeping " + file.getName() + " in mapped files.");
+                SessionData.getInstance().addDataset(new MappedDataSet(store, file.getName()));
+            } else {
+                SessionData.getInstance().addDataset(new LazyDataSet(store, file.getName()));
+            }
+            return;
+        } catch (IOException ex) {
+            Logger.getLogger(CSVDataLoader.class.getName()).log(Level.SEVERE, "Could not use a column store for " + file + ", loading it into memory", ex);
+        }
+        loadInMemory(file);
+    }
+
+    private static void loadInMemory(File file) {
 
         DataPoint[][] baseData; //baseData[frame][fish]
-        HashMap<String, Double> featureMinValues = new HashMap<>();
-        HashMap<String, Double> featureMaxValues = new HashMap<>();
-        HashMap<String, Double[]> deciles = new HashMap<>();
 
         Reader in;
 
@@ -108,38 +133,6 @@ public class CSVDataLoader {
             featurelist.addAll(csvFileParser.getHeaderMap().keySet());
             System.out.println("Features found: " + featurelist);
 
-            //Assign feature percentiles and min/max values
-            for (String feature : featurelist) {
-                if (feature.equals("frame") || feature.equals("id") || feature.equals("x") || feature.equals("y")) {
-                    continue;
-                }
-                double[] temp = new double[csvRecords.size()];
-                int i = 0;
-
-                double min = Double.MAX_VALUE;
-                double max = Double.MIN_VALUE;
-                for (CSVRecord csvr : csvRecords) {
-                    temp[i] = Double.parseDouble(csvr.get(feature));
-                    if (temp[i] < min) {
-                        min = temp[i];
-                    }
-                    if (temp[i] > max) {
-                        max = temp[i];
-                    }
-
-                    i++;
-                }
-
-                Double[] decilesarr = new Double[9];
-                for (int j = 1; j < 10; j++) {
-                    decilesarr[j - 1] = StatUtils.percentile(temp, j * 10);
-                    //System.out.println("Percentile " + j*10 + ": " + StatUtils.percentile(temp, j*10));
-                }
-                deciles.put(feature, decilesarr);
-                featureMinValues.put(feature, min);
-                featureMaxValues.put(feature, max);
-            }
-
             //Determine dataset dimensions
             int frames = Math.toIntExact(csvRecords.size());
             System.out.println("Dataset size:" + uniquemovers + " movers in " + frames / uniquemovers + " frames.");
@@ -167,7 +160,20 @@ public class CSVDataLoader {
                 }
             }
 
-            CSVDataSet csvd = new CSVDataSet(featurelist, baseData, deciles, file.getName(), featureMinValues, featureMaxValues);
+            //Movement features missing in the CSV, derived from the positions
+            List<String> derived = DerivedFeatures.missing(featurelist);
+            if (!derived.isEmpty()) {
+                long start = System.currentTimeMillis();
+                int movers = FrameSelection.maxMovers(baseData);
+                new DerivedFeatures(DerivedFeatures.defaultRadius(FrameSelection.bounds(baseData), movers)).addTo(baseData, derived);
+                featurelist.addAll(derived);
+                System.out.println("Derived " + derived + " in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+
+            //Feature min/max values and percentiles, summarized in parallel
+            FeatureStatistics statistics = FeatureStatistics.of(baseData, Runtime.getRuntime().availableProcessors());
+
+            CSVDataSet csvd = new CSVDataSet(featurelist, baseData, statistics, file.getName());
             SessionData.getInstance().addDataset(csvd);
 
         } catch (FileNotFoundException ex) {
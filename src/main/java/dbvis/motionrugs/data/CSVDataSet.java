@@ -15,7 +15,6 @@
  */
 package dbvis.motionrugs.data;
 
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -42,31 +41,30 @@ public class CSVDataSet implements DataSet {
 
     private List<String> features;
     private DataPoint[][] baseData;
-    private HashMap<String, Double[]> deciles;
-    private HashMap<String, DataPoint[][]> orderedDataSets;
-    private HashMap<String, Double> featureMins;
-    private HashMap<String, Double> featureMaxs;
+    private final Orderings orderings = new Orderings();
+    private FeatureStatistics statistics;
     private String name;
 
     /**
      *
      * @param features the list of features contained in the dataset
      * @param baseData the unordered base data of the movment
-     * @param deciles a map containing deciles of the feature value ranges for
-     * each feature
+     * @param statistics min, max and percentiles of the feature values
      * @param name the name of the dataset
-     * @param featureMins the min value per feature
-     * @param featureMaxs the max value per feature
      */
-    public CSVDataSet(List<String> features, DataPoint[][] baseData, HashMap<String, Double[]> deciles, String name, HashMap<String, Double> featureMins, HashMap<String, Double> featureMaxs) {
+    public CSVDataSet(List<String> features, DataPoint[][] baseData, FeatureStatistics statistics, String name) {
         this.features = features;
         this.baseData = baseData;
-        this.deciles = deciles;
+        this.statistics = statistics;
         this.name = name;
         this.name = this.name.replace(".csv", "");
-        orderedDataSets = new HashMap<>();
-        this.featureMins = featureMins;
-        this.featureMaxs = featureMaxs;
+    }
+
+    /**
+     * @return the statistics of the feature values
+     */
+    public FeatureStatistics getStatistics() {
+        return statistics;
     }
 
     /**
@@ -77,6 +75,35 @@ public class CSVDataSet implements DataSet {
         return baseData;
     }
 
+    /**
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @return the selected frames of the base data
+     */
+    @Override
+    public DataPoint[][] getFrames(int from, int to) {
+        return FrameSelection.range(baseData, from, to);
+    }
+
+    /**
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @param moverIds the ids of the selected movers
+     * @return the selected movers of the base data per frame
+     */
+    @Override
+    public DataPoint[][] getFrames(int from, int to, int[] moverIds) {
+        return FrameSelection.movers(baseData, from, to, moverIds);
+    }
+
+    /**
+     * @return the movers of the base data inside the box per frame
+     */
+    @Override
+    public DataPoint[][] getFrames(int from, int to, double minX, double minY, double maxX, double maxY) {
+        return FrameSelection.area(baseData, from, to, minX, minY, maxX, maxY);
+    }
+
     /**
      * Stores results of applied ordering strategies separately
      *
@@ -91,7 +118,17 @@ public class CSVDataSet implements DataSet {
         if (strategyID == null) {
             System.out.println("STRATID IS NULL");
         }
-        orderedDataSets.put(strategyID, data);
+        orderings.put(strategyID, getBaseData(), data);
+    }
+
+    @Override
+    public void addPermutation(int[][] perm, String strategyID) {
+        orderings.put(strategyID, perm);
+    }
+
+    @Override
+    public int[][] getPermutation(String strategyID) {
+        return orderings.getPermutation(strategyID);
     }
 
     /**
@@ -103,8 +140,20 @@ public class CSVDataSet implements DataSet {
     @Override
     public DataPoint[][] getData(String strategyID) {
         System.out.println("TRYING TO GET DATA. INPUT ID: " + strategyID);
-        System.out.println("EXISTING KEYS: " + orderedDataSets.keySet());
-        return orderedDataSets.get(strategyID);
+        return orderings.get(strategyID, this::getBaseData);
+    }
+
+    /**
+     * Returns the values of a feature in the order of a strategy
+     *
+     * @param strategyID the strategy for which ordered values are returned
+     * @param feature the feature
+     * @return the ordered values or null if the data was not ordered with the
+     * strategy
+     */
+    @Override
+    public double[][] getOrderedFeature(String strategyID, String feature) {
+        return orderings.getFeature(strategyID, feature, this::getBaseData);
     }
 
     /**
@@ -115,8 +164,8 @@ public class CSVDataSet implements DataSet {
      */
     @Override
     public double getMin(String featureid) {
-        System.out.println("MINVAL " + featureid + featureMins.get(featureid));
-        return featureMins.get(featureid);
+        System.out.println("MINVAL " + featureid + statistics.getMin(featureid));
+        return statistics.getMin(featureid);
     }
 
     /**
@@ -127,7 +176,7 @@ public class CSVDataSet implements DataSet {
      */
     @Override
     public double getMax(String featureid) {
-        return featureMaxs.get(featureid);
+        return statistics.getMax(featureid);
     }
 
     /**
@@ -148,7 +197,7 @@ public class CSVDataSet implements DataSet {
      */
     @Override
     public Double[] getDeciles(String feature) {
-        return deciles.get(feature);
+        return statistics.getDeciles(feature);
     }
 
     /**
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A column of doubles or ints in a memory-mapped file. Files larger than a
+ * single mapping are mapped in chunks, values never span two chunks.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+class ColumnFile implements Closeable {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+
+    private ColumnFile(File f, long length, int width, ByteOrder order, boolean write) throws IOException {
+        this.file = new RandomAccessFile(f, write ? "rw" : "r");
+        this.length = length;
+        long bytes = length * width;
+        if (write) {
+            file.setLength(bytes);
+        } else if (file.length() < bytes) {
+            file.close();
+            throw new IOException(f + " holds " + file.length() + " bytes, expected " + bytes);
+        }
+        int count = (int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT);
+        this.chunks = new MappedByteBuffer[count];
+        FileChannel channel = file.getChannel();
+        for (int c = 0; c < count; c++) {
+            long position = (long) c << CHUNK_SHIFT;
+            chunks[c] = channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, position, Math.min(bytes - position, 1L << CHUNK_SHIFT));
+            chunks[c].order(order);
+        }
+    }
+
+    /**
+     * Creates a column file of the given number of values, all zero
+     */
+    static ColumnFile create(File f, long length, int width, ByteOrder order) throws IOException {
+        return new ColumnFile(f, length, width, order, true);
+    }
+
+    /**
+     * Opens an existing column file for reading
+     */
+    static ColumnFile open(File f, long length, int width, ByteOrder order) throws IOException {
+        return new ColumnFile(f, length, width, order, false);
+    }
+
+    /**
+     * @return the number of values
+     */
+    long length() {
+        return length;
+    }
+
+    double getDouble(long index) {
+        long position = index << 3;
+        return chunks[(int) (position >>> CHUNK_SHIFT)].getDouble((int) (position & CHUNK_MASK));
+    }
+
+    void putDouble(long index, double value) {
+        long position = index << 3;
+        chunks[(int) (position >>> CHUNK_SHIFT)].putDouble((int) (position & CHUNK_MASK), value);
+    }
+
+    int getInt(long index) {
+        long position = index << 2;
+        return chunks[(int) (position >>> CHUNK_SHIFT)].getInt((int) (position & CHUNK_MASK));
+    }
+
+    void putInt(long index, int value) {
+        long position = index << 2;
+        chunks[(int) (position >>> CHUNK_SHIFT)].putInt((int) (position & CHUNK_MASK), value);
+    }
+
+    /**
+     * Copies doubles from the column in bulk
+     *
+     * @param from the index of the first value
+     * @param dst the array to copy to
+     * @param offset the first position in dst
+     * @param count the number of values
+     */
+    void getDoubles(long from, double[] dst, int offset, int count) {
+        while (count > 0) {
+            long position = from << 3;
+            int chunk = (int) (position >>> CHUNK_SHIFT);
+            DoubleBuffer doubles = chunks[chunk].duplicate().order(chunks[chunk].order()).asDoubleBuffer();
+            int start = (int) ((position & CHUNK_MASK) >>> 3);
+            int n = Math.min(count, doubles.capacity() - start);
+            doubles.position(start);
+            doubles.get(dst, offset, n);
+            from += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk.isReadOnly()) {
+                continue;
+            }
+            chunk.force();
+        }
+        file.close();
+    }
+
+}
@@ -15,14 +15,17 @@
  */
 package dbvis.motionrugs.data;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
  * One DataPoint represents one mover at a specific point in space and the
  * values of the measured features of the mover (e.g. speed) at the time and
- * place.
+ * place. Values are either stored in the DataPoint or looked up in
+ * FeatureColumns, e.g. loaded from disk when first needed.
  *
  * @author Juri Buchmüller, University of Konstanz
  * <buchmueller@dbvis.inf.uni-konstanz.de>
@@ -31,7 +34,10 @@ public class DataPoint {
 
     private double x;
     private double y;
+    //created with the first value put
     private HashMap<String, Double> values;
+    private FeatureColumns columns;
+    private long index;
     private Date date;
     private int id;
 
@@ -43,10 +49,22 @@ public class DataPoint {
     public DataPoint(double x, double y, int id) {
         this.x = x;
         this.y = y;
-        values = new HashMap<>();
         this.id = id;
     }
 
+    /**
+     * @param x the movers position in x
+     * @param y the movers position in y
+     * @param id id of the mover
+     * @param columns the columns holding the feature values
+     * @param index the index of this point in the columns
+     */
+    public DataPoint(double x, double y, int id, FeatureColumns columns, long index) {
+        this(x, y, id);
+        this.columns = columns;
+        this.index = index;
+    }
+
     /**
      * Returns the movers x-coordinate
      *
@@ -72,7 +90,16 @@ public class DataPoint {
      * @return the value of the requested feature
      */
     public double getValue(String feature) {
-        return values.get(feature);
+        if (values != null) {
+            Double value = values.get(feature);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (columns == null) {
+            throw new IllegalArgumentException("No value for feature " + feature);
+        }
+        return columns.getValue(feature, index);
     }
 
     /**
@@ -81,7 +108,14 @@ public class DataPoint {
      * @return 
      */
     public Set<String> getAvailableFeatures() {
-        return values.keySet();
+        if (columns == null) {
+            return values == null ? Collections.<String>emptySet() : values.keySet();
+        }
+        Set<String> features = new LinkedHashSet<>(columns.getFeatures());
+        if (values != null) {
+            features.addAll(values.keySet());
+        }
+        return features;
     }
 
     /**
@@ -91,6 +125,9 @@ public class DataPoint {
      * @param value the feature value to add
      */
     public void putValue(String feature, double value) {
+        if (values == null) {
+            values = new HashMap<>();
+        }
         values.put(feature, value);
     }
 
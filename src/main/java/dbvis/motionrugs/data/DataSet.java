@@ -34,17 +34,75 @@ public interface DataSet {
      */
     public DataPoint[][] getBaseData();
 
+    /**
+     * Returns the frames from..to of the unsorted base data
+     *
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @return the selected frames
+     */
+    public DataPoint[][] getFrames(int from, int to);
+
+    /**
+     * Returns the given movers in the frames from..to of the unsorted base
+     * data. Movers missing in a frame are left out of it.
+     *
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @param moverIds the ids of the selected movers
+     * @return the selected movers per frame
+     */
+    public DataPoint[][] getFrames(int from, int to, int[] moverIds);
+
+    /**
+     * Returns the movers inside a bounding box in the frames from..to of the
+     * unsorted base data. The frames only contain the movers inside the box
+     * at that time, so they differ in length.
+     *
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @param minX the smallest x coordinate of the box
+     * @param minY the smallest y coordinate of the box
+     * @param maxX the largest x coordinate of the box
+     * @param maxY the largest y coordinate of the box
+     * @return the selected movers per frame
+     */
+    public DataPoint[][] getFrames(int from, int to, double minX, double minY, double maxX, double maxY);
+
     /**
      * Stores the sorted data as 2D-array of DataPoints. First dimension are the
-     * columns, second dimension the ordered values.
+     * columns, second dimension the ordered values. Only the permutation of the
+     * base data is kept (see addPermutation).
      *
      * @param data The data to be stored.
      * @param strategyID The id of the strategy the data was sorted with.
+     * @throws IllegalArgumentException if the data is not a reordering of the
+     * base data
      */
     public void addOrderedData(DataPoint[][] data, String strategyID);
 
     /**
-     * Retrieves the sorted data as double[][] by strategy identifier.
+     * Stores an ordering as permutations of the frames of the base data:
+     * perm[frame][i] is the position in the unsorted frame of the i-th mover in
+     * the ordering.
+     *
+     * @param perm The permutations to be stored.
+     * @param strategyID The id of the strategy the data was sorted with.
+     */
+    public void addPermutation(int[][] perm, String strategyID);
+
+    /**
+     * Retrieves the permutations of an ordering by strategy identifier.
+     *
+     * @param strategyID The desired strategy
+     * @return The permutations of the frames or null if the data was not
+     * sorted according to the specified strategy.
+     */
+    public int[][] getPermutation(String strategyID);
+
+    /**
+     * Retrieves the sorted data, created from the stored permutation, by
+     * strategy identifier.
      *
      * @param strategyID The desired strategy
      * @return The data sorted according to the chosen strategy or null if the
@@ -52,6 +110,19 @@ public interface DataSet {
      */
     public DataPoint[][] getData(String strategyID);
 
+    /**
+     * Retrieves the values of a feature in the order of a strategy. First
+     * dimension are the frames, second dimension the ordered values. Ordered
+     * features are cached, so switching between features does not require
+     * ordering again.
+     *
+     * @param strategyID The desired strategy
+     * @param feature The desired feature
+     * @return The feature values ordered according to the chosen strategy or
+     * null if the data was not sorted according to the specified strategy.
+     */
+    public double[][] getOrderedFeature(String strategyID, String feature);
+
     /**
      * Returns the minimum value of the base dataset
      *
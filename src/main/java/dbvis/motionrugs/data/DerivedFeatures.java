@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import dbvis.motionrugs.strategies.GridIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Derives movement features from positions, so they do not have to be
+ * shipped with the data. Per mover, from its last positions:
+ * <ul>
+ * <li>speed: distance moved since the previous frame</li>
+ * <li>acceleration: change of the speed since the previous frame</li>
+ * <li>turning: signed change of the heading in radians</li>
+ * </ul>
+ * Per frame, from the movers around:
+ * <ul>
+ * <li>nndistance: distance to the nearest other mover</li>
+ * <li>density: number of other movers within the radius</li>
+ * <li>polarization: length of the mean heading of the movers within the
+ * radius, from 0 (disordered) to 1 (aligned)</li>
+ * </ul>
+ * Positions are given frame by frame, mover by mover, as in the
+ * BinaryColumnStore. Frames are computed in parallel, the neighbors are looked
+ * up in a GridIndex with cells of the size of the radius.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class DerivedFeatures {
+
+    public static final String SPEED = "speed";
+    public static final String ACCELERATION = "acceleration";
+    public static final String TURNING = "turning";
+    public static final String NN_DISTANCE = "nndistance";
+    public static final String DENSITY = "density";
+    public static final String POLARIZATION = "polarization";
+
+    /**
+     * All features that can be derived
+     */
+    public static final List<String> FEATURES = Collections.unmodifiableList(Arrays.asList(SPEED, ACCELERATION, TURNING, NN_DISTANCE, DENSITY, POLARIZATION));
+
+    /**
+     * The number of previous frames needed for the kinematic features
+     */
+    public static final int HISTORY = 2;
+
+    private final double radius;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * @param radius the radius of the neighborhood for density and
+     * polarization
+     */
+    public DerivedFeatures(double radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * @param feature the name of a feature
+     * @return if the feature is an angle, to be averaged on the circle
+     */
+    public static boolean isAngular(String feature) {
+        return TURNING.equals(feature);
+    }
+
+    /**
+     * Returns a neighborhood radius of twice the typical spacing of the
+     * movers, if they were spread evenly over the bounding box
+     *
+     * @param bounds min x, min y, max x and max y of the positions
+     * @param movers the number of movers
+     * @return the radius
+     */
+    public static double defaultRadius(double[] bounds, int movers) {
+        double area = Math.max(0, bounds[2] - bounds[0]) * Math.max(0, bounds[3] - bounds[1]);
+        double radius = 2 * Math.sqrt(area / Math.max(1, movers));
+        return radius > 0 ? radius : 1;
+    }
+
+    /**
+     * Returns the derivable features missing in the given columns. Derivation
+     * can be switched off with -Dmotionrugs.derive=false.
+     *
+     * @param columns the columns of a dataset
+     * @return the features to derive
+     */
+    public static List<String> missing(Collection<String> columns) {
+        ArrayList<String> missing = new ArrayList<>();
+        if (Boolean.parseBoolean(System.getProperty("motionrugs.derive", "true"))) {
+            for (String feature : FEATURES) {
+                if (!columns.contains(feature)) {
+                    missing.add(feature);
+                }
+            }
+        }
+        return missing;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * Computes derived features of a block of frames. The positions start
+     * history frames before the block, so the kinematic features are
+     * continuous across blocks.
+     *
+     * @param movers the number of movers per frame
+     * @param history the number of frames before the block, at most HISTORY
+     * (less at the start of the data)
+     * @param frames the number of frames of the block
+     * @param xs x coordinates of the history and block frames
+     * @param ys y coordinates of the history and block frames
+     * @param ids mover ids of the history and block frames, negative for
+     * missing points
+     * @param features the features to compute, from FEATURES
+     * @param out one array of frames * movers values per feature, missing
+     * points are set to 0
+     */
+    public void compute(int movers, int history, int frames, double[] xs, double[] ys, int[] ids, List<String> features, double[][] out) {
+        int[] which = new int[features.size()];
+        for (int k = 0; k < which.length; k++) {
+            which[k] = FEATURES.indexOf(features.get(k));
+            if (which[k] < 0) {
+                throw new IllegalArgumentException("Cannot derive " + features.get(k));
+            }
+        }
+        IntStream.range(0, frames).parallel().forEach(f -> computeFrame(movers, history + f, xs, ys, ids, which, out, f * movers));
+    }
+
+    /**
+     * Computes derived features of frames held in memory and adds them to
+     * their DataPoints. The frames are indexed by mover id, as loaded from
+     * CSV.
+     *
+     * @param frames the frames, first dimension frames, second movers
+     * @param features the features to compute, from FEATURES
+     */
+    public void addTo(DataPoint[][] frames, List<String> features) {
+        int movers = FrameSelection.maxMovers(frames);
+        int points = frames.length * movers;
+        double[] xs = new double[points];
+        double[] ys = new double[points];
+        int[] ids = new int[points];
+        Arrays.fill(ids, -1);
+        for (int f = 0; f < frames.length; f++) {
+            for (int m = 0; m < frames[f].length; m++) {
+                DataPoint dp = frames[f][m];
+                if (dp != null) {
+                    xs[f * movers + m] = dp.getX();
+                    ys[f * movers + m] = dp.getY();
+                    ids[f * movers + m] = dp.getId();
+                }
+            }
+        }
+        double[][] out = new double[features.size()][points];
+        compute(movers, 0, frames.length, xs, ys, ids, features, out);
+        for (int f = 0; f < frames.length; f++) {
+            for (int m = 0; m < frames[f].length; m++) {
+                if (frames[f][m] != null) {
+                    for (int k = 0; k < out.length; k++) {
+                        frames[f][m].putValue(features.get(k), out[k][f * movers + m]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void computeFrame(int movers, int frame, double[] xs, double[] ys, int[] ids, int[] which, double[][] out, int outOffset) {
+        int base = frame * movers;
+        Scratch scratch = this.scratch.get();
+        scratch.ensure(movers);
+        double[] values = scratch.values;
+
+        //present movers of the frame, packed for the grid
+        int n = 0;
+        for (int m = 0; m < movers; m++) {
+            if (ids[base + m] >= 0) {
+                scratch.xs[n] = xs[base + m];
+                scratch.ys[n] = ys[base + m];
+                scratch.movers[n] = m;
+                heading(movers, frame, m, xs, ys, ids, scratch.headingX, scratch.headingY, n);
+                n++;
+            }
+        }
+        GridIndex grid = scratch.grid;
+        grid.build(scratch.xs, scratch.ys, n, radius);
+
+        for (int m = 0; m < movers; m++) {
+            if (ids[base + m] < 0) {
+                for (int k = 0; k < which.length; k++) {
+                    out[k][outOffset + m] = 0;
+                }
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            int m = scratch.movers[p];
+            Arrays.fill(values, 0);
+            kinematics(movers, frame, m, xs, ys, ids, values);
+
+            if (grid.nearest(scratch.xs[p], scratch.ys[p], p, scratch.nearest, scratch.distances) > 0) {
+                values[3] = Math.sqrt(scratch.distances[0]);
+            }
+            //the neighborhood includes the mover itself
+            int found = grid.radius(scratch.xs[p], scratch.ys[p], radius, scratch.neighbors);
+            if (found > scratch.neighbors.length) {
+                scratch.neighbors = new int[found];
+                grid.radius(scratch.xs[p], scratch.ys[p], radius, scratch.neighbors);
+            }
+            double sumX = 0;
+            double sumY = 0;
+            for (int j = 0; j < found; j++) {
+                sumX += scratch.headingX[scratch.neighbors[j]];
+                sumY += scratch.headingY[scratch.neighbors[j]];
+            }
+            values[4] = found - 1;
+            values[5] = Math.min(1, Math.sqrt(sumX * sumX + sumY * sumY) / found);
+
+            for (int k = 0; k < which.length; k++) {
+                out[k][outOffset + m] = values[which[k]];
+            }
+        }
+    }
+
+    /**
+     * Per thread buffers, reused from frame to frame
+     */
+    private static class Scratch {
+
+        final GridIndex grid = new GridIndex();
+        final double[] values = new double[FEATURES.size()];
+        final int[] nearest = new int[1];
+        final double[] distances = new double[1];
+        int[] neighbors = new int[64];
+        double[] xs = new double[0];
+        double[] ys = new double[0];
+        int[] movers = new int[0];
+        double[] headingX = new double[0];
+        double[] headingY = new double[0];
+
+        void ensure(int size) {
+            if (xs.length < size) {
+                xs = new double[size];
+                ys = new double[size];
+                movers = new int[size];
+                headingX = new double[size];
+                headingY = new double[size];
+            }
+        }
+    }
+
+    /**
+     * Unit vector of the last movement, or of the next one in the first
+     * frame. Zero if the mover did not move.
+     */
+    private static void heading(int movers, int frame, int m, double[] xs, double[] ys, int[] ids, double[] headingX, double[] headingY, int to) {
+        int i = frame * movers + m;
+        int prev = frame > 0 ? i - movers : i + movers;
+        headingX[to] = 0;
+        headingY[to] = 0;
+        if (ids[i] < 0 || prev >= ids.length || ids[prev] < 0) {
+            return;
+        }
+        double dx = frame > 0 ? xs[i] - xs[prev] : xs[prev] - xs[i];
+        double dy = frame > 0 ? ys[i] - ys[prev] : ys[prev] - ys[i];
+        double length = Math.sqrt(dx * dx + dy * dy);
+        if (length > 0) {
+            headingX[to] = dx / length;
+            headingY[to] = dy / length;
+        }
+    }
+
+    /**
+     * Speed, acceleration and turning angle from the last three positions
+     */
+    private static void kinematics(int movers, int frame, int m, double[] xs, double[] ys, int[] ids, double[] values) {
+        int i = frame * movers + m;
+        int p1 = i - movers;
+        int p2 = i - 2 * movers;
+        boolean has1 = frame >= 1 && ids[p1] >= 0;
+        boolean has2 = frame >= 2 && has1 && ids[p2] >= 0;
+        if (!has1) {
+            //the first position of a mover takes the speed of its next movement
+            int next = i + movers;
+            if (next < ids.length && ids[next] >= 0) {
+                values[0] = Math.hypot(xs[next] - xs[i], ys[next] - ys[i]);
+            }
+            return;
+        }
+        double dx1 = xs[i] - xs[p1];
+        double dy1 = ys[i] - ys[p1];
+        values[0] = Math.sqrt(dx1 * dx1 + dy1 * dy1);
+        if (has2) {
+            double dx0 = xs[p1] - xs[p2];
+            double dy0 = ys[p1] - ys[p2];
+            values[1] = values[0] - Math.sqrt(dx0 * dx0 + dy0 * dy0);
+            if ((dx0 != 0 || dy0 != 0) && (dx1 != 0 || dy1 != 0)) {
+                values[2] = Math.atan2(dx0 * dy1 - dy0 * dx1, dx0 * dx1 + dy0 * dy1);
+            }
+        }
+    }
+
+}
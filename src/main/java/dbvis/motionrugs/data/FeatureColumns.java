@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.Collection;
+
+/**
+ * Feature values stored outside of the DataPoints, e.g. as columns on disk.
+ * DataPoints created with FeatureColumns look their values up by their index
+ * in the columns.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public interface FeatureColumns {
+
+    /**
+     * Returns a feature value
+     *
+     * @param feature the feature
+     * @param index the index of the point in the columns
+     * @return the value of the feature
+     */
+    public double getValue(String feature, long index);
+
+    /**
+     * @return the features stored in the columns
+     */
+    public Collection<String> getFeatures();
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.math3.stat.StatUtils;
+
+/**
+ * Incrementally updatable statistics of the features of a dataset: exact
+ * count, min and max plus a QuantileSketch per feature. Statistics of parts of
+ * the data, e.g. appended frames or chunks of a time window, are combined with
+ * merge, so the data never has to be scanned again. Where all values of a
+ * feature are at hand, setValues replaces the sketched deciles by exact ones.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class FeatureStatistics {
+
+    private final double accuracy;
+    private final LinkedHashMap<String, Summary> summaries = new LinkedHashMap<>();
+
+    public FeatureStatistics() {
+        this(QuantileSketch.DEFAULT_ACCURACY);
+    }
+
+    /**
+     * @param accuracy the accuracy of the sketched quantiles relative to the
+     * value range
+     */
+    public FeatureStatistics(double accuracy) {
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * Computes the statistics of all frames, summarizing ranges of frames in
+     * parallel and merging the results. The deciles are exact.
+     *
+     * @param frames the frames, e.g. the base data of a dataset
+     * @param threads the number of threads
+     * @return the statistics of the frames
+     */
+    public static FeatureStatistics of(DataPoint[][] frames, int threads) {
+        int parts = Math.max(1, Math.min(threads, frames.length));
+        ExecutorService pool = Executors.newFixedThreadPool(parts);
+        List<Future<FeatureStatistics>> results = new ArrayList<>(parts);
+        try {
+            for (int p = 0; p < parts; p++) {
+                final int from = (int) ((long) frames.length * p / parts);
+                final int to = (int) ((long) frames.length * (p + 1) / parts);
+                results.add(pool.submit(() -> {
+                    FeatureStatistics part = new FeatureStatistics();
+                    for (int x = from; x < to; x++) {
+                        part.addFrame(frames[x]);
+                    }
+                    return part;
+                }));
+            }
+            FeatureStatistics statistics = new FeatureStatistics();
+            for (Future<FeatureStatistics> result : results) {
+                statistics.merge(result.get());
+            }
+            List<Future<?>> exact = new ArrayList<>();
+            for (String feature : statistics.getFeatures()) {
+                exact.add(pool.submit(() -> statistics.setValues(feature, values(frames, feature))));
+            }
+            for (Future<?> result : exact) {
+                result.get();
+            }
+            return statistics;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing statistics", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Could not compute statistics", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects the values of a feature over all frames
+     */
+    private static double[] values(DataPoint[][] frames, String feature) {
+        int n = 0;
+        for (DataPoint[] frame : frames) {
+            n += frame.length;
+        }
+        double[] values = new double[n];
+        int i = 0;
+        for (DataPoint[] frame : frames) {
+            for (DataPoint dp : frame) {
+                if (dp.getAvailableFeatures().contains(feature)) {
+                    values[i++] = dp.getValue(feature);
+                }
+            }
+        }
+        return Arrays.copyOf(values, i);
+    }
+
+    /**
+     * Counts a value of a feature
+     *
+     * @param feature the feature
+     * @param value the value
+     */
+    public void add(String feature, double value) {
+        Summary summary = summaries.get(feature);
+        if (summary == null) {
+            summary = new Summary(accuracy);
+            summaries.put(feature, summary);
+        }
+        summary.add(value);
+    }
+
+    /**
+     * Counts all feature values of the points of a frame
+     *
+     * @param frame the points
+     */
+    public void addFrame(DataPoint[] frame) {
+        for (DataPoint dp : frame) {
+            for (String feature : dp.getAvailableFeatures()) {
+                add(feature, dp.getValue(feature));
+            }
+        }
+    }
+
+    /**
+     * Adds the statistics of another part of the data
+     *
+     * @param other the statistics to merge into these
+     */
+    public void merge(FeatureStatistics other) {
+        for (Map.Entry<String, Summary> entry : other.summaries.entrySet()) {
+            Summary summary = summaries.get(entry.getKey());
+            if (summary == null) {
+                summary = new Summary(accuracy);
+                summaries.put(entry.getKey(), summary);
+            }
+            summary.merge(entry.getValue());
+        }
+    }
+
+    /**
+     * @return the features with at least one value
+     */
+    public Set<String> getFeatures() {
+        return summaries.keySet();
+    }
+
+    /**
+     * @param feature the feature
+     * @return the number of values of the feature
+     */
+    public long getCount(String feature) {
+        Summary summary = summaries.get(feature);
+        return summary == null ? 0 : summary.sketch.getCount();
+    }
+
+    /**
+     * @param feature the feature
+     * @return the exact min value of the feature, NaN if there is none
+     */
+    public double getMin(String feature) {
+        Summary summary = summaries.get(feature);
+        return summary == null ? Double.NaN : summary.min;
+    }
+
+    /**
+     * @param feature the feature
+     * @return the exact max value of the feature, NaN if there is none
+     */
+    public double getMax(String feature) {
+        Summary summary = summaries.get(feature);
+        return summary == null ? Double.NaN : summary.max;
+    }
+
+    /**
+     * Returns a quantile of a feature, within the accuracy of the sketch
+     * relative to the value range and never outside min and max
+     *
+     * @param feature the feature
+     * @param q the quantile, from 0 to 1
+     * @return the value at the quantile, NaN if there is none
+     */
+    public double getQuantile(String feature, double q) {
+        Summary summary = summaries.get(feature);
+        if (summary == null) {
+            return Double.NaN;
+        }
+        return Math.max(summary.min, Math.min(summary.max, summary.sketch.getQuantile(q)));
+    }
+
+    /**
+     * Sets the exact deciles of a feature from all of its values. They are
+     * kept until further values are counted or merged.
+     *
+     * @param feature the feature
+     * @param values all values of the feature
+     */
+    public void setValues(String feature, double[] values) {
+        Summary summary = summaries.get(feature);
+        if (summary != null) {
+            summary.exact = deciles(values);
+        }
+    }
+
+    /**
+     * Returns the exact deciles of values, the 10th to 90th percentile
+     *
+     * @param values the values
+     * @return the 9 deciles
+     */
+    public static Double[] deciles(double[] values) {
+        Double[] decilesarr = new Double[9];
+        for (int j = 1; j < 10; j++) {
+            decilesarr[j - 1] = StatUtils.percentile(values, j * 10);
+        }
+        return decilesarr;
+    }
+
+    /**
+     * Returns the deciles of a feature, the 10th to 90th percentile. They are
+     * exact if set by setValues, sketched otherwise.
+     *
+     * @param feature the feature
+     * @return the 9 deciles, null if the feature has no values
+     */
+    public Double[] getDeciles(String feature) {
+        Summary summary = summaries.get(feature);
+        if (summary == null) {
+            return null;
+        }
+        if (summary.exact != null) {
+            return summary.exact.clone();
+        }
+        Double[] decilesarr = new Double[9];
+        for (int j = 1; j < 10; j++) {
+            decilesarr[j - 1] = getQuantile(feature, j / 10.0);
+        }
+        return decilesarr;
+    }
+
+    private static class Summary {
+
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final QuantileSketch sketch;
+        //exact deciles of all values, if known
+        private Double[] exact;
+
+        Summary(double accuracy) {
+            this.sketch = new QuantileSketch(accuracy);
+        }
+
+        void add(double value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sketch.add(value);
+            exact = null;
+        }
+
+        void merge(Summary other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sketch.merge(other.sketch);
+            exact = null;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Reduces the number of frames before ordering, for overviews of recordings
+ * with far more frames than pixels. Every window of factor consecutive frames
+ * becomes one frame, either its first frame (STRIDE) or the mean position and
+ * feature values of each mover over the window (MEAN). Only the given
+ * features are averaged, so columns not rendered are not read; angles (see
+ * DerivedFeatures.isAngular) are averaged on the circle.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class FrameAggregator {
+
+    /**
+     * How the frames of a window are combined
+     */
+    public enum Mode {
+        /**
+         * The first frame of the window is kept
+         */
+        STRIDE,
+        /**
+         * Positions and feature values are averaged per mover
+         */
+        MEAN
+    }
+
+    private final Mode mode;
+    private final int factor;
+    private final String[] features;
+    private final boolean[] angular;
+
+    /**
+     * @param mode how the frames of a window are combined
+     * @param factor the number of frames combined into one
+     * @param features the features averaged by MEAN, the others are dropped
+     */
+    public FrameAggregator(Mode mode, int factor, Collection<String> features) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("The factor has to be at least 1, got " + factor);
+        }
+        this.mode = mode;
+        this.factor = factor;
+        this.features = features.toArray(new String[features.size()]);
+        this.angular = new boolean[this.features.length];
+        for (int f = 0; f < this.features.length; f++) {
+            angular[f] = DerivedFeatures.isAngular(this.features[f]);
+        }
+    }
+
+    /**
+     * Creates an aggregator reducing the frames to at most the given width
+     *
+     * @param mode how the frames of a window are combined
+     * @param frames the number of frames
+     * @param targetWidth the number of frames wanted, e.g. the width of the
+     * display in pixels
+     * @param features the features averaged by MEAN, the others are dropped
+     * @return the aggregator
+     */
+    public static FrameAggregator forWidth(Mode mode, int frames, int targetWidth, Collection<String> features) {
+        return new FrameAggregator(mode, factorFor(frames, targetWidth), features);
+    }
+
+    /**
+     * @param frames the number of frames
+     * @param targetWidth the number of frames wanted
+     * @return the smallest factor reducing the frames to the target width
+     */
+    public static int factorFor(int frames, int targetWidth) {
+        return Math.max(1, (frames + Math.max(1, targetWidth) - 1) / Math.max(1, targetWidth));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Combines every window of factor frames into one frame
+     *
+     * @param frames the frames, sorted by mover id
+     * @return the aggregated frames, the last window may be shorter
+     */
+    public DataPoint[][] aggregate(DataPoint[][] frames) {
+        int windows = (frames.length + factor - 1) / factor;
+        DataPoint[][] result = new DataPoint[windows][];
+        for (int w = 0; w < windows; w++) {
+            int from = w * factor;
+            int to = Math.min(frames.length, from + factor);
+            result[w] = mode == Mode.STRIDE || to - from == 1 ? frames[from] : mean(frames, from, to);
+        }
+        return result;
+    }
+
+    /**
+     * Averages position and features of every mover over the frames from..to.
+     * Movers missing in some frames are averaged over the frames they are in.
+     */
+    private DataPoint[] mean(DataPoint[][] frames, int from, int to) {
+        //slots of the movers in the order they are first seen
+        HashMap<Integer, Integer> slots = new HashMap<>();
+        int movers = 0;
+        for (int x = from; x < to; x++) {
+            movers = Math.max(movers, frames[x].length);
+        }
+        int[] ids = new int[movers];
+        int[] counts = new int[movers];
+        double[] xs = new double[movers];
+        double[] ys = new double[movers];
+        //per mover the sum of each feature, for angles the sums of sine and cosine
+        double[][] sums = new double[movers][];
+
+        for (int x = from; x < to; x++) {
+            DataPoint[] frame = frames[x];
+            for (int i = 0; i < frame.length; i++) {
+                DataPoint dp = frame[i];
+                int slot;
+                //frames of the datasets keep the movers at the same index
+                if (i < movers && counts[i] > 0 && ids[i] == dp.getId()) {
+                    slot = i;
+                } else {
+                    Integer known = slots.get(dp.getId());
+                    if (known == null) {
+                        slot = slots.size();
+                        if (slot == ids.length) {
+                            ids = Arrays.copyOf(ids, slot * 2);
+                            counts = Arrays.copyOf(counts, slot * 2);
+                            xs = Arrays.copyOf(xs, slot * 2);
+                            ys = Arrays.copyOf(ys, slot * 2);
+                            sums = Arrays.copyOf(sums, slot * 2);
+                        }
+                        slots.put(dp.getId(), slot);
+                        ids[slot] = dp.getId();
+                    } else {
+                        slot = known;
+                    }
+                }
+                if (sums[slot] == null) {
+                    sums[slot] = new double[2 * features.length];
+                }
+                counts[slot]++;
+                xs[slot] += dp.getX();
+                ys[slot] += dp.getY();
+                for (int f = 0; f < features.length; f++) {
+                    double value = dp.getValue(features[f]);
+                    if (angular[f]) {
+                        sums[slot][2 * f] += Math.sin(value);
+                        sums[slot][2 * f + 1] += Math.cos(value);
+                    } else {
+                        sums[slot][2 * f] += value;
+                    }
+                }
+            }
+        }
+
+        DataPoint[] result = new DataPoint[slots.size()];
+        for (int slot = 0; slot < result.length; slot++) {
+            DataPoint dp = new DataPoint(xs[slot] / counts[slot], ys[slot] / counts[slot], ids[slot]);
+            for (int f = 0; f < features.length; f++) {
+                dp.putValue(features[f], angular[f] ? Math.atan2(sums[slot][2 * f], sums[slot][2 * f + 1]) : sums[slot][2 * f] / counts[slot]);
+            }
+            result[slot] = dp;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+/**
+ * Gets notified about frames arriving in a StreamingDataSet.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public interface FrameListener {
+
+    /**
+     * Called on the thread reading the stream after a frame has been added
+     * to the dataset. Implementations should return quickly, the next frame
+     * is not read before.
+     *
+     * @param dataset the dataset the frame was added to
+     * @param frame the points of the frame, ordered by mover id
+     * @param frameNumber the number of the frame in the stream, from 0
+     */
+    public void frameAdded(StreamingDataSet dataset, DataPoint[] frame, long frameNumber);
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.Arrays;
+
+/**
+ * Selections of frames, movers and areas of the frame x mover grid of a
+ * dataset. The DataPoints are not copied, only the arrays referencing them.
+ * Selections of movers or areas are ragged: frames only contain the movers
+ * matching in that frame.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class FrameSelection {
+
+    private FrameSelection() {
+    }
+
+    /**
+     * Returns the frames from..to
+     *
+     * @param frames the frames of a dataset
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @return the selected frames
+     */
+    public static DataPoint[][] range(DataPoint[][] frames, int from, int to) {
+        checkRange(frames.length, from, to);
+        return Arrays.copyOfRange(frames, from, to);
+    }
+
+    /**
+     * Returns the given movers in the frames from..to. The frames are
+     * expected to be sorted by mover id, as the base data of the datasets is.
+     *
+     * @param frames the frames of a dataset
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @param moverIds the ids of the movers, in the order they are returned
+     * @return the selected movers per frame, missing movers are left out
+     */
+    public static DataPoint[][] movers(DataPoint[][] frames, int from, int to, int[] moverIds) {
+        checkRange(frames.length, from, to);
+        DataPoint[][] selection = new DataPoint[to - from][];
+        DataPoint[] found = new DataPoint[moverIds.length];
+        for (int x = from; x < to; x++) {
+            DataPoint[] frame = frames[x];
+            int count = 0;
+            for (int id : moverIds) {
+                DataPoint dp = find(frame, id);
+                if (dp != null) {
+                    found[count++] = dp;
+                }
+            }
+            selection[x - from] = Arrays.copyOf(found, count);
+        }
+        return selection;
+    }
+
+    /**
+     * Returns the movers inside a bounding box in the frames from..to
+     *
+     * @param frames the frames of a dataset
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @param minX the smallest x coordinate of the box
+     * @param minY the smallest y coordinate of the box
+     * @param maxX the largest x coordinate of the box
+     * @param maxY the largest y coordinate of the box
+     * @return the movers inside the box per frame
+     */
+    public static DataPoint[][] area(DataPoint[][] frames, int from, int to, double minX, double minY, double maxX, double maxY) {
+        checkRange(frames.length, from, to);
+        DataPoint[][] selection = new DataPoint[to - from][];
+        DataPoint[] found = new DataPoint[0];
+        for (int x = from; x < to; x++) {
+            if (found.length < frames[x].length) {
+                found = new DataPoint[frames[x].length];
+            }
+            int count = 0;
+            for (DataPoint dp : frames[x]) {
+                if (dp.getX() >= minX && dp.getX() <= maxX && dp.getY() >= minY && dp.getY() <= maxY) {
+                    found[count++] = dp;
+                }
+            }
+            selection[x - from] = Arrays.copyOf(found, count);
+        }
+        return selection;
+    }
+
+    /**
+     * @param frames frames, possibly ragged
+     * @return the number of movers in the largest frame
+     */
+    public static int maxMovers(DataPoint[][] frames) {
+        int max = 0;
+        for (DataPoint[] frame : frames) {
+            max = Math.max(max, frame.length);
+        }
+        return max;
+    }
+
+    /**
+     * @param frames frames, possibly ragged or with missing points
+     * @return min x, min y, max x and max y of the positions
+     */
+    public static double[] bounds(DataPoint[][] frames) {
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (DataPoint[] frame : frames) {
+            for (DataPoint dp : frame) {
+                if (dp != null) {
+                    bounds[0] = Math.min(bounds[0], dp.getX());
+                    bounds[1] = Math.min(bounds[1], dp.getY());
+                    bounds[2] = Math.max(bounds[2], dp.getX());
+                    bounds[3] = Math.max(bounds[3], dp.getY());
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Finds a mover in a frame sorted by id. With gapless ids, the mover is
+     * found at its id.
+     */
+    private static DataPoint find(DataPoint[] frame, int id) {
+        if (id >= 0 && id < frame.length && frame[id].getId() == id) {
+            return frame[id];
+        }
+        int low = 0;
+        int high = frame.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = frame[mid].getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return frame[mid];
+            }
+        }
+        return null;
+    }
+
+    private static void checkRange(int frames, int from, int to) {
+        if (from < 0 || to > frames || from > to) {
+            throw new IndexOutOfBoundsException("Frames " + from + " to " + to + " are not within 0 to " + frames);
+        }
+    }
+
+}
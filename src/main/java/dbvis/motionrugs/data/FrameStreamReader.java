@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Reads frames from a live source into a StreamingDataSet. The stream has the
+ * layout of the CSV datasets (see CSVDataSet), a header line followed by one
+ * line per mover and frame, sorted by frame.
+ *
+ * Sources are given as
+ * <ul>
+ * <li>- for the standard input</li>
+ * <li>tcp:port for a connection to the given port on the local host</li>
+ * <li>a file name for a file that is followed as it grows, like tail -f</li>
+ * </ul>
+ *
+ * A frame is passed on when the first line of the next frame arrives, so the
+ * number of movers may change from frame to frame.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class FrameStreamReader implements Runnable {
+
+    //how long a followed file is left alone after reaching its end
+    private static final long TAIL_POLL_MILLIS = 5;
+
+    private final String source;
+    private final StreamingDataSet dataset;
+    private volatile boolean running = true;
+    private volatile Reader in;
+
+    /**
+     * @param source the source of the stream, see above
+     * @param dataset the dataset the frames are added to
+     */
+    public FrameStreamReader(String source, StreamingDataSet dataset) {
+        this.source = source;
+        this.dataset = dataset;
+    }
+
+    /**
+     * Starts reading in a background thread
+     *
+     * @return the reading thread
+     */
+    public Thread start() {
+        Thread thread = new Thread(this, "Frame stream " + source);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stops reading, the current frame is dropped
+     */
+    public void stop() {
+        running = false;
+        Reader reader = in;
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                Logger.getLogger(FrameStreamReader.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            in = open();
+            read(in);
+        } catch (IOException ex) {
+            if (running) {
+                Logger.getLogger(FrameStreamReader.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    private Reader open() throws IOException {
+        if (source.equals("-")) {
+            return new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        }
+        if (source.startsWith("tcp:")) {
+            int port = Integer.parseInt(source.substring(4));
+            try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+                System.out.println("Waiting for frames on port " + port);
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                return new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+            }
+        }
+        return new InputStreamReader(new TailInputStream(new File(source)), StandardCharsets.UTF_8);
+    }
+
+    private void read(Reader reader) throws IOException {
+        CSVParser parser = new CSVParser(reader, CSVFormat.RFC4180.withFirstRecordAsHeader());
+        List<String> featurelist = new ArrayList<>(parser.getHeaderMap().keySet());
+        System.out.println("Features found: " + featurelist);
+        dataset.setFeatureList(featurelist);
+
+        ArrayList<String> features = new ArrayList<>();
+        for (String feature : featurelist) {
+            if (!(feature.equals("frame") || feature.equals("id") || feature.equals("x") || feature.equals("y"))) {
+                features.add(feature);
+            }
+        }
+
+        ArrayList<DataPoint> current = new ArrayList<>();
+        long currentFrame = -1;
+        for (CSVRecord csvr : parser) {
+            if (!running) {
+                return;
+            }
+            long frame = Long.parseLong(csvr.get("frame"));
+            if (frame != currentFrame) {
+                //a frame is complete once the next one starts
+                if (!current.isEmpty()) {
+                    emit(current);
+                }
+                currentFrame = frame;
+            }
+
+            DataPoint dp = new DataPoint(Double.parseDouble(csvr.get("x")), Double.parseDouble(csvr.get("y")), Integer.parseInt(csvr.get("id")));
+            for (String feature : features) {
+                dp.putValue(feature, Double.parseDouble(csvr.get(feature)));
+            }
+            current.add(dp);
+        }
+        if (!current.isEmpty()) {
+            emit(current);
+        }
+        System.out.println("Stream " + source + " ended after " + dataset.getFrameCount() + " frames.");
+    }
+
+    private void emit(ArrayList<DataPoint> current) {
+        DataPoint[] frame = current.toArray(new DataPoint[current.size()]);
+        Arrays.sort(frame, Comparator.comparingInt(DataPoint::getId));
+        current.clear();
+        dataset.appendFrame(frame);
+    }
+
+    /**
+     * Input stream over a file that waits for more data at the end of the
+     * file instead of ending
+     */
+    private class TailInputStream extends InputStream {
+
+        private final FileInputStream file;
+
+        TailInputStream(File file) throws IOException {
+            this.file = new FileInputStream(file);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (running) {
+                int n = file.read(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                try {
+                    Thread.sleep(TAIL_POLL_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return file.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dataset backed by a BinaryColumnStore. Only positions and ids are loaded
+ * when it is opened, the feature columns are read from disk when a value is
+ * first asked for. Loaded columns are only softly referenced, so they are
+ * dropped under memory pressure and read again when needed.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class LazyDataSet implements DataSet, FeatureColumns {
+
+    private final BinaryColumnStore store;
+    private final String name;
+    private final DataPoint[][] baseData;
+    private final ConcurrentHashMap<String, SoftReference<double[]>> loaded = new ConcurrentHashMap<>();
+    private final Orderings orderings = new Orderings();
+
+    /**
+     * Opens a dataset, loading positions and ids
+     *
+     * @param store the store of the dataset
+     * @param name the name of the dataset
+     * @throws IOException if positions or ids could not be read
+     */
+    public LazyDataSet(BinaryColumnStore store, String name) throws IOException {
+        this.store = store;
+        this.name = name.replace(".csv", "");
+        int frames = store.getFrames();
+        int movers = store.getMovers();
+        double[] xs = store.readColumn("x");
+        double[] ys = store.readColumn("y");
+        int[] ids = store.readIds();
+        baseData = new DataPoint[frames][];
+        DataPoint[] frame = new DataPoint[movers];
+        for (int f = 0; f < frames; f++) {
+            //points missing in the CSV are left out
+            int count = 0;
+            for (int m = 0; m < movers; m++) {
+                int index = f * movers + m;
+                if (ids[index] >= 0) {
+                    frame[count++] = new DataPoint(xs[index], ys[index], ids[index], this, index);
+                }
+            }
+            baseData[f] = Arrays.copyOf(frame, count);
+        }
+    }
+
+    /**
+     * Returns a feature value, reading the feature column if it is not in
+     * memory
+     *
+     * @param feature the feature
+     * @param index the index of the point in the store
+     * @return the value
+     */
+    @Override
+    public double getValue(String feature, long index) {
+        SoftReference<double[]> reference = loaded.get(feature);
+        double[] column = reference == null ? null : reference.get();
+        if (column == null) {
+            column = load(feature);
+        }
+        return column[(int) index];
+    }
+
+    private synchronized double[] load(String feature) {
+        SoftReference<double[]> reference = loaded.get(feature);
+        double[] column = reference == null ? null : reference.get();
+        if (column == null) {
+            if (!store.getFeatures().contains(feature)) {
+                throw new IllegalArgumentException("No value for feature " + feature);
+            }
+            try {
+                System.out.println("Loading feature " + feature + " of " + name);
+                column = store.readColumn(feature);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Could not read feature " + feature + " of " + name, ex);
+            }
+            loaded.put(feature, new SoftReference<>(column));
+        }
+        return column;
+    }
+
+    @Override
+    public Collection<String> getFeatures() {
+        return store.getFeatures();
+    }
+
+    @Override
+    public DataPoint[][] getBaseData() {
+        return baseData;
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to) {
+        return FrameSelection.range(baseData, from, to);
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to, int[] moverIds) {
+        return FrameSelection.movers(baseData, from, to, moverIds);
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to, double minX, double minY, double maxX, double maxY) {
+        return FrameSelection.area(baseData, from, to, minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public void addOrderedData(DataPoint[][] data, String strategyID) {
+        orderings.put(strategyID, getBaseData(), data);
+    }
+
+    @Override
+    public void addPermutation(int[][] perm, String strategyID) {
+        orderings.put(strategyID, perm);
+    }
+
+    @Override
+    public int[][] getPermutation(String strategyID) {
+        return orderings.getPermutation(strategyID);
+    }
+
+    @Override
+    public DataPoint[][] getData(String strategyID) {
+        return orderings.get(strategyID, this::getBaseData);
+    }
+
+    @Override
+    public double[][] getOrderedFeature(String strategyID, String feature) {
+        return orderings.getFeature(strategyID, feature, this::getBaseData);
+    }
+
+    @Override
+    public double getMin(String feature) {
+        return store.getMin(feature);
+    }
+
+    @Override
+    public double getMax(String feature) {
+        return store.getMax(feature);
+    }
+
+    /**
+     * @return all columns of the dataset, including frame, id, x and y
+     */
+    @Override
+    public List<String> getFeatureList() {
+        return store.getHeader();
+    }
+
+    @Override
+    public Double[] getDeciles(String feature) {
+        return store.getDeciles(feature);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+}
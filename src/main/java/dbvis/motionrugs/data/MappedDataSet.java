@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dataset reading positions and features from the memory-mapped files of a
+ * BinaryColumnStore, for datasets larger than the heap. The values stay in
+ * the page cache outside the heap. DataPoints are only created for the frames
+ * asked for with getFrames and read their feature values from the mapped
+ * files, so ordering and rendering a dataset in ranges of frames (see
+ * TiledRugWriter) keeps the heap small.
+ *
+ * getBaseData creates the DataPoints of all frames and should be avoided for
+ * large datasets.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class MappedDataSet implements DataSet, FeatureColumns {
+
+    private final BinaryColumnStore store;
+    private final String name;
+    private final ColumnFile xs;
+    private final ColumnFile ys;
+    private final ColumnFile ids;
+    private final HashMap<String, ColumnFile> features = new HashMap<>();
+    private final Orderings orderings = new Orderings();
+    private double[] bounds;
+
+    /**
+     * Maps the columns of a store
+     *
+     * @param store the store of the dataset
+     * @param name the name of the dataset
+     * @throws IOException if a column could not be mapped
+     */
+    public MappedDataSet(BinaryColumnStore store, String name) throws IOException {
+        this.store = store;
+        this.name = name.replace(".csv", "");
+        this.xs = store.openColumn("x");
+        this.ys = store.openColumn("y");
+        this.ids = store.openColumn("id");
+        for (String feature : store.getFeatures()) {
+            features.put(feature, store.openColumn(feature));
+        }
+    }
+
+    @Override
+    public double getValue(String feature, long index) {
+        ColumnFile column = features.get(feature);
+        if (column == null) {
+            throw new IllegalArgumentException("No value for feature " + feature);
+        }
+        return column.getDouble(index);
+    }
+
+    @Override
+    public Collection<String> getFeatures() {
+        return store.getFeatures();
+    }
+
+    /**
+     * @return the number of frames of the dataset
+     */
+    public int getFrameCount() {
+        return store.getFrames();
+    }
+
+    /**
+     * Returns the bounding box of all positions, read once from the mapped
+     * files
+     *
+     * @return min x, min y, max x and max y
+     */
+    public synchronized double[] getBounds() {
+        if (bounds == null) {
+            bounds = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (long i = 0; i < xs.length(); i++) {
+                if (ids.getInt(i) < 0) {
+                    continue;
+                }
+                double x = xs.getDouble(i);
+                double y = ys.getDouble(i);
+                bounds[0] = Math.min(bounds[0], x);
+                bounds[1] = Math.min(bounds[1], y);
+                bounds[2] = Math.max(bounds[2], x);
+                bounds[3] = Math.max(bounds[3], y);
+            }
+        }
+        return bounds.clone();
+    }
+
+    /**
+     * Creates the DataPoints of all frames
+     *
+     * @return the unsorted base data
+     */
+    @Override
+    public DataPoint[][] getBaseData() {
+        Logger.getLogger(MappedDataSet.class.getName()).log(Level.WARNING, "Creating all {0} frames of {1}, prefer ranges of frames", new Object[]{store.getFrames(), name});
+        return getFrames(0, store.getFrames());
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to) {
+        if (from < 0 || to > store.getFrames() || from > to) {
+            throw new IndexOutOfBoundsException("Frames " + from + " to " + to + " are not within 0 to " + store.getFrames());
+        }
+        int movers = store.getMovers();
+        DataPoint[][] frames = new DataPoint[to - from][];
+        DataPoint[] frame = new DataPoint[movers];
+        for (int f = from; f < to; f++) {
+            //points missing in the CSV are left out
+            int count = 0;
+            for (int m = 0; m < movers; m++) {
+                long index = (long) f * movers + m;
+                int id = ids.getInt(index);
+                if (id >= 0) {
+                    frame[count++] = new DataPoint(xs.getDouble(index), ys.getDouble(index), id, this, index);
+                }
+            }
+            frames[f - from] = Arrays.copyOf(frame, count);
+        }
+        return frames;
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to, int[] moverIds) {
+        DataPoint[][] frames = getFrames(from, to);
+        return FrameSelection.movers(frames, 0, frames.length, moverIds);
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to, double minX, double minY, double maxX, double maxY) {
+        DataPoint[][] frames = getFrames(from, to);
+        return FrameSelection.area(frames, 0, frames.length, minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public void addOrderedData(DataPoint[][] data, String strategyID) {
+        orderings.put(strategyID, getBaseData(), data);
+    }
+
+    @Override
+    public void addPermutation(int[][] perm, String strategyID) {
+        orderings.put(strategyID, perm);
+    }
+
+    @Override
+    public int[][] getPermutation(String strategyID) {
+        return orderings.getPermutation(strategyID);
+    }
+
+    @Override
+    public DataPoint[][] getData(String strategyID) {
+        return orderings.get(strategyID, this::getBaseData);
+    }
+
+    @Override
+    public double[][] getOrderedFeature(String strategyID, String feature) {
+        return orderings.getFeature(strategyID, feature, this::getBaseData);
+    }
+
+    @Override
+    public double getMin(String feature) {
+        return store.getMin(feature);
+    }
+
+    @Override
+    public double getMax(String feature) {
+        return store.getMax(feature);
+    }
+
+    @Override
+    public List<String> getFeatureList() {
+        return store.getHeader();
+    }
+
+    @Override
+    public Double[] getDeciles(String feature) {
+        return store.getDeciles(feature);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Small least-recently-used cache of feature values in the order of a
+ * strategy. The values of a feature are laid out like the ordered data, first
+ * dimension frames, second the ordered movers.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class OrderedColumnCache {
+
+    /**
+     * The default number of cached ordered features
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final LinkedHashMap<String, double[][]> columns;
+
+    public OrderedColumnCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of ordered features kept
+     */
+    public OrderedColumnCache(final int capacity) {
+        this.columns = new LinkedHashMap<String, double[][]>(capacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, double[][]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the values of a feature in the order of the given permutations
+     * of the base data, extracting them if they are not cached.
+     *
+     * @param strategyID the strategy the data was ordered with
+     * @param feature the feature
+     * @param base the unsorted base data, only read if not cached
+     * @param perm the permutations of the frames, see Orderings
+     * @return the ordered feature values
+     */
+    public synchronized double[][] get(String strategyID, String feature, Supplier<DataPoint[][]> base, int[][] perm) {
+        String key = strategyID + "\u0000" + feature;
+        double[][] values = columns.get(key);
+        if (values == null) {
+            DataPoint[][] frames = base.get();
+            values = new double[perm.length][];
+            for (int x = 0; x < perm.length; x++) {
+                values[x] = new double[perm[x].length];
+                for (int y = 0; y < perm[x].length; y++) {
+                    values[x][y] = frames[x][perm[x][y]].getValue(feature);
+                }
+            }
+            columns.put(key, values);
+        }
+        return values;
+    }
+
+    /**
+     * Drops the cached features of a strategy, e.g. when its ordering changed
+     *
+     * @param strategyID the strategy
+     */
+    public synchronized void invalidate(String strategyID) {
+        columns.keySet().removeIf(key -> key.startsWith(strategyID + "\u0000"));
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import dbvis.motionrugs.strategies.MultiStrategyRunner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The orderings of a dataset by strategy, kept as permutations of the base
+ * data: perm[frame][i] is the position in the unsorted frame of the i-th mover
+ * in the ordering. A permutation takes 4 bytes per point and stays valid when
+ * the base data is read again. Ordered DataPoints and feature values are
+ * created from it on request; the feature values are cached.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class Orderings {
+
+    private final ConcurrentHashMap<String, int[][]> permutations = new ConcurrentHashMap<>();
+    private final OrderedColumnCache orderedColumns = new OrderedColumnCache();
+
+    /**
+     * Stores an ordering
+     *
+     * @param strategyID the strategy the data was ordered with
+     * @param perm the permutations of the frames
+     */
+    public void put(String strategyID, int[][] perm) {
+        permutations.put(strategyID, perm);
+        orderedColumns.invalidate(strategyID);
+    }
+
+    /**
+     * Stores ordered frames as the permutation of the base data
+     *
+     * @param strategyID the strategy the data was ordered with
+     * @param base the unsorted base data
+     * @param ordered the same frames, ordered
+     * @throws IllegalArgumentException if the frames are not reorderings of
+     * the base data, e.g. aggregated frames
+     */
+    public void put(String strategyID, DataPoint[][] base, DataPoint[][] ordered) {
+        put(strategyID, MultiStrategyRunner.toPermutation(base, ordered));
+    }
+
+    /**
+     * @param strategyID the strategy
+     * @return the permutations of the frames, null if not ordered with the
+     * strategy
+     */
+    public int[][] getPermutation(String strategyID) {
+        return permutations.get(strategyID);
+    }
+
+    /**
+     * @param strategyID the strategy
+     * @param base the unsorted base data, only read if ordered with the
+     * strategy
+     * @return the ordered frames, null if not ordered with the strategy
+     */
+    public DataPoint[][] get(String strategyID, Supplier<DataPoint[][]> base) {
+        int[][] perm = permutations.get(strategyID);
+        return perm == null ? null : MultiStrategyRunner.apply(base.get(), perm);
+    }
+
+    /**
+     * @param strategyID the strategy
+     * @param feature the feature
+     * @param base the unsorted base data, only read if the values are not
+     * cached
+     * @return the ordered values of the feature, null if not ordered with the
+     * strategy
+     */
+    public double[][] getFeature(String strategyID, String feature, Supplier<DataPoint[][]> base) {
+        int[][] perm = permutations.get(strategyID);
+        return perm == null ? null : orderedColumns.get(strategyID, feature, base, perm);
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile summary with an error bounded by the value range. Values
+ * are counted in buckets of equal width, a power of two, covering at most
+ * 2 / a buckets. If a value falls outside, neighbouring buckets are joined
+ * and the width doubled, so the width stays within about a times the range
+ * of the values and any quantile is returned within an error of a times the
+ * range of a value of the right rank, no matter how far the values are from
+ * zero. Sketches of separate parts of the data, e.g. frames of a time window,
+ * are merged by adding their buckets at the coarser width.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class QuantileSketch {
+
+    /**
+     * The default accuracy of the quantiles, relative to the value range
+     */
+    public static final double DEFAULT_ACCURACY = 0.01;
+
+    //initial bucket width relative to the magnitude of the first value
+    private static final double INITIAL_RESOLUTION = 0x1p-40;
+
+    private final double accuracy;
+    private final long[] counts;
+    //bucket i counts the values in [(lo + i) * width, (lo + i + 1) * width)
+    private double width;
+    private long lo;
+    private long hi;
+    private long count;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /**
+     * @param accuracy the accuracy of the quantiles relative to the value
+     * range, e.g. 0.01
+     */
+    public QuantileSketch(double accuracy) {
+        this.accuracy = accuracy;
+        this.counts = new long[Math.max(2, (int) Math.ceil(2 / accuracy))];
+    }
+
+    /**
+     * Counts a value, NaN and infinite values are skipped
+     *
+     * @param value the value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (count == 0) {
+            width = Math.max(Double.MIN_NORMAL, Math.scalb(1.0, Math.getExponent(Math.max(Math.abs(value), Double.MIN_NORMAL))) * INITIAL_RESOLUTION);
+            lo = hi = (long) Math.floor(value / width);
+        }
+        while (!fits(Math.floor(value / width), Math.floor(value / width))) {
+            coarsen();
+        }
+        put((long) Math.floor(value / width), 1);
+        count++;
+    }
+
+    /**
+     * Adds the counts of another sketch of the same accuracy
+     *
+     * @param other the sketch to merge into this one
+     */
+    public void merge(QuantileSketch other) {
+        if (other.accuracy != accuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches of accuracy " + accuracy + " and " + other.accuracy);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            width = other.width;
+            lo = hi = other.lo;
+        }
+        while (width < other.width || !fits(Math.floor(other.lo * other.width / width), Math.floor(other.hi * other.width / width))) {
+            coarsen();
+        }
+        for (int i = 0; i <= other.hi - other.lo; i++) {
+            if (other.counts[i] != 0) {
+                put((long) Math.floor((other.lo + i) * other.width / width), other.counts[i]);
+            }
+        }
+        count += other.count;
+    }
+
+    /**
+     * @return the number of values counted
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Returns the value at the given quantile
+     *
+     * @param q the quantile, from 0 to 1
+     * @return the estimated value, NaN if the sketch is empty
+     */
+    public double getQuantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (Math.max(0, Math.min(1, q)) * (count - 1));
+        long seen = 0;
+        for (int i = 0; i <= hi - lo; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return (lo + i + 0.5) * width;
+            }
+        }
+        return (hi + 0.5) * width;
+    }
+
+    /**
+     * Whether the buckets from the key first to last fit in along with the
+     * counted ones
+     */
+    private boolean fits(double first, double last) {
+        return Math.max(hi, last) - Math.min(lo, first) < counts.length;
+    }
+
+    private void put(long key, long n) {
+        if (key < lo) {
+            int shift = (int) (lo - key);
+            System.arraycopy(counts, 0, counts, shift, (int) (hi - lo + 1));
+            Arrays.fill(counts, 0, shift, 0);
+            lo = key;
+        }
+        hi = Math.max(hi, key);
+        counts[(int) (key - lo)] += n;
+    }
+
+    /**
+     * Doubles the bucket width, joining pairs of neighbouring buckets
+     */
+    private void coarsen() {
+        long first = Math.floorDiv(lo, 2);
+        int used = (int) (hi - lo + 1);
+        for (int i = 0; i < used; i++) {
+            long n = counts[i];
+            counts[i] = 0;
+            counts[(int) (Math.floorDiv(lo + i, 2) - first)] += n;
+        }
+        lo = first;
+        hi = Math.floorDiv(hi, 2);
+        width *= 2;
+    }
+
+}
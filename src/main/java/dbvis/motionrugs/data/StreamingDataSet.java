@@ -0,0 +1,265 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A dataset filled while it is displayed, e.g. from a live tracking session
+ * (see FrameStreamReader). Only the latest frames are kept in a ring buffer of
+ * fixed capacity. The base data and orderings cover the buffered frames at
+ * the time they are requested.
+ *
+ * Min and max values are tracked over all frames received, the deciles are
+ * taken from WindowedStatistics of about the buffered frames.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class StreamingDataSet implements DataSet {
+
+    /**
+     * The default number of buffered frames
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    //number of chunks the statistics of the buffered frames are kept in
+    private static final int WINDOW_CHUNKS = 64;
+
+    private final String name;
+    private final DataPoint[][] ring;
+    private long frameCount;
+    private List<String> features = new ArrayList<>();
+    private final FeatureStatistics statistics = new FeatureStatistics();
+    private final WindowedStatistics windowStatistics;
+    //deciles of the buffered frames, dropped when a frame arrives
+    private HashMap<String, Double[]> deciles = new HashMap<>();
+    private final Orderings orderings = new Orderings();
+    private final List<FrameListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name the name of the dataset
+     */
+    public StreamingDataSet(String name) {
+        this(name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param name the name of the dataset
+     * @param capacity the number of frames kept
+     */
+    public StreamingDataSet(String name, int capacity) {
+        this.name = name;
+        this.ring = new DataPoint[capacity][];
+        this.windowStatistics = new WindowedStatistics(capacity, Math.max(1, capacity / WINDOW_CHUNKS));
+    }
+
+    /**
+     * Sets the features of the stream, e.g. from the header of a stream
+     *
+     * @param features the list of features contained in the stream
+     */
+    public synchronized void setFeatureList(List<String> features) {
+        this.features = new ArrayList<>(features);
+    }
+
+    public void addFrameListener(FrameListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeFrameListener(FrameListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds a frame to the dataset, replacing the oldest frame if the buffer is
+     * full, and notifies the listeners
+     *
+     * @param frame the points of the frame, ordered by mover id
+     */
+    public void appendFrame(DataPoint[] frame) {
+        long frameNumber;
+        synchronized (this) {
+            frameNumber = frameCount++;
+            ring[(int) (frameNumber % ring.length)] = frame;
+            statistics.addFrame(frame);
+            windowStatistics.addFrame(frame);
+            deciles.clear();
+        }
+        for (FrameListener listener : listeners) {
+            listener.frameAdded(this, frame, frameNumber);
+        }
+    }
+
+    /**
+     * @return the number of frames received so far
+     */
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the number of frames in the buffer
+     */
+    public synchronized int getBufferedFrames() {
+        return (int) Math.min(frameCount, ring.length);
+    }
+
+    /**
+     * Returns a frame if it is still buffered
+     *
+     * @param frameNumber the number of the frame in the stream
+     * @return the points of the frame or null if it is not buffered
+     */
+    public synchronized DataPoint[] getFrame(long frameNumber) {
+        if (frameNumber < 0 || frameNumber >= frameCount || frameNumber < frameCount - ring.length) {
+            return null;
+        }
+        return ring[(int) (frameNumber % ring.length)];
+    }
+
+    /**
+     * @return the buffered frames, oldest first
+     */
+    @Override
+    public synchronized DataPoint[][] getBaseData() {
+        return getFrames(0, getBufferedFrames());
+    }
+
+    /**
+     * Returns buffered frames, numbered from the oldest buffered frame as in
+     * getBaseData
+     *
+     * @param from the first frame
+     * @param to the frame after the last frame
+     * @return the selected frames
+     */
+    @Override
+    public synchronized DataPoint[][] getFrames(int from, int to) {
+        int buffered = getBufferedFrames();
+        if (from < 0 || to > buffered || from > to) {
+            throw new IndexOutOfBoundsException("Frames " + from + " to " + to + " are not within 0 to " + buffered);
+        }
+        DataPoint[][] frames = new DataPoint[to - from][];
+        long first = frameCount - buffered + from;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = ring[(int) ((first + i) % ring.length)];
+        }
+        return frames;
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to, int[] moverIds) {
+        DataPoint[][] frames = getFrames(from, to);
+        return FrameSelection.movers(frames, 0, frames.length, moverIds);
+    }
+
+    @Override
+    public DataPoint[][] getFrames(int from, int to, double minX, double minY, double maxX, double maxY) {
+        DataPoint[][] frames = getFrames(from, to);
+        return FrameSelection.area(frames, 0, frames.length, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Stores results of applied ordering strategies separately
+     *
+     * @param data the ordered data to store
+     * @param strategyID the id of the strategy the data was ordered with
+     */
+    @Override
+    public synchronized void addOrderedData(DataPoint[][] data, String strategyID) {
+        orderings.put(strategyID, getBaseData(), data);
+    }
+
+    @Override
+    public synchronized void addPermutation(int[][] perm, String strategyID) {
+        orderings.put(strategyID, perm);
+    }
+
+    @Override
+    public synchronized int[][] getPermutation(String strategyID) {
+        return orderings.getPermutation(strategyID);
+    }
+
+    @Override
+    public synchronized DataPoint[][] getData(String strategyID) {
+        return orderings.get(strategyID, this::getBaseData);
+    }
+
+    @Override
+    public synchronized double[][] getOrderedFeature(String strategyID, String feature) {
+        return orderings.getFeature(strategyID, feature, this::getBaseData);
+    }
+
+    /**
+     * Returns the min value of the requested feature over all frames received
+     *
+     * @param featureid the feature for which the min value is requested
+     * @return the min value for the requested feature
+     */
+    @Override
+    public synchronized double getMin(String featureid) {
+        return statistics.getMin(featureid);
+    }
+
+    /**
+     * Returns the max value of the requested feature over all frames received
+     *
+     * @param featureid the feature for which the max value is requested
+     * @return the max value for the requested feature
+     */
+    @Override
+    public synchronized double getMax(String featureid) {
+        return statistics.getMax(featureid);
+    }
+
+    /**
+     * @return the statistics of all frames received
+     */
+    public synchronized FeatureStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public synchronized List<String> getFeatureList() {
+        return features;
+    }
+
+    /**
+     * Returns the deciles of a requested feature over the buffered frames
+     *
+     * @param feature the feature for which the deciles are requested
+     * @return the deciles for the requested feature
+     */
+    @Override
+    public synchronized Double[] getDeciles(String feature) {
+        Double[] decilesarr = deciles.get(feature);
+        if (decilesarr == null) {
+            decilesarr = windowStatistics.getStatistics().getDeciles(feature);
+            deciles.put(feature, decilesarr);
+        }
+        return decilesarr;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.data;
+
+import java.util.ArrayDeque;
+
+/**
+ * FeatureStatistics of the latest frames of a stream. Frames are summarized
+ * in chunks of a fixed number of frames. Chunks falling out of the window are
+ * dropped and the rest are merged on request, so the statistics cover the
+ * window rounded up to whole chunks plus the frames of the current chunk.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class WindowedStatistics {
+
+    private final int chunkFrames;
+    private final int chunks;
+    private final ArrayDeque<FeatureStatistics> completed = new ArrayDeque<>();
+    private FeatureStatistics current = new FeatureStatistics();
+    private int currentFrames;
+    //merge of the completed chunks, dropped when a chunk completes
+    private FeatureStatistics merged;
+
+    /**
+     * @param windowFrames the number of frames covered
+     * @param chunkFrames the number of frames summarized together
+     */
+    public WindowedStatistics(int windowFrames, int chunkFrames) {
+        this.chunkFrames = Math.max(1, chunkFrames);
+        this.chunks = Math.max(1, (windowFrames + this.chunkFrames - 1) / this.chunkFrames);
+    }
+
+    /**
+     * Counts the feature values of a frame
+     *
+     * @param frame the points of the frame
+     */
+    public synchronized void addFrame(DataPoint[] frame) {
+        current.addFrame(frame);
+        currentFrames++;
+        if (currentFrames == chunkFrames) {
+            completed.addLast(current);
+            if (completed.size() > chunks) {
+                completed.removeFirst();
+            }
+            current = new FeatureStatistics();
+            currentFrames = 0;
+            merged = null;
+        }
+    }
+
+    /**
+     * @return the statistics of the frames in the window
+     */
+    public synchronized FeatureStatistics getStatistics() {
+        if (merged == null) {
+            merged = new FeatureStatistics();
+            for (FeatureStatistics chunk : completed) {
+                merged.merge(chunk);
+            }
+        }
+        FeatureStatistics window = new FeatureStatistics();
+        window.merge(merged);
+        window.merge(current);
+        return window;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * A rug stored as one bin index byte per pixel plus a palette, row by row. The
+ * index after the last palette color marks values that could not be colored
+ * and is drawn black. Changing the palette recolors the rug without touching
+ * the indices.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class IndexedRug {
+
+    /**
+     * The maximum number of palette colors
+     */
+    public static final int MAX_COLORS = 255;
+
+    private final int width;
+    private final int height;
+    private final byte[] indices;
+    private Color[] palette;
+
+    /**
+     * @param width the number of frames
+     * @param height the number of movers
+     * @param palette the colors of the bins, at most 255
+     */
+    public IndexedRug(int width, int height, Color[] palette) {
+        if (palette.length > MAX_COLORS) {
+            throw new IllegalArgumentException("At most " + MAX_COLORS + " colors are supported, got " + palette.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        this.indices = new byte[Math.multiplyExact(width, height)];
+        //everything is uncolored until drawn
+        Arrays.fill(indices, (byte) palette.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the bin indices, row by row
+     */
+    public byte[] getIndices() {
+        return indices;
+    }
+
+    public Color[] getPalette() {
+        return palette;
+    }
+
+    /**
+     * Recolors the rug. The new palette needs as many colors as the old one.
+     *
+     * @param palette the new colors of the bins
+     */
+    public void setPalette(Color[] palette) {
+        if (palette.length != this.palette.length) {
+            throw new IllegalArgumentException("Expected " + this.palette.length + " colors, got " + palette.length);
+        }
+        this.palette = palette;
+    }
+
+    /**
+     * @return the color model of the current palette
+     */
+    public IndexColorModel getColorModel() {
+        return colorModel(palette);
+    }
+
+    private static IndexColorModel colorModel(Color[] palette) {
+        int size = palette.length + 1;
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        for (int i = 0; i < palette.length; i++) {
+            r[i] = (byte) palette[i].getRed();
+            g[i] = (byte) palette[i].getGreen();
+            b[i] = (byte) palette[i].getBlue();
+        }
+        return new IndexColorModel(8, size, r, g, b);
+    }
+
+    /**
+     * Creates an image of the rug in the current palette. The image shares the
+     * indices with this rug, no pixels are copied.
+     *
+     * @return the image of the rug
+     */
+    public BufferedImage toImage() {
+        return toImage(palette);
+    }
+
+    /**
+     * Creates an image of the rug in another palette, leaving the palette of
+     * this rug as it is. The image shares the indices with this rug.
+     *
+     * @param palette the colors of the bins, as many as the palette of the rug
+     * @return the image of the rug
+     */
+    public BufferedImage toImage(Color[] palette) {
+        if (palette.length != this.palette.length) {
+            throw new IllegalArgumentException("Expected " + this.palette.length + " colors, got " + palette.length);
+        }
+        DataBufferByte buffer = new DataBufferByte(indices, indices.length);
+        WritableRaster raster = Raster.createInterleavedRaster(buffer, width, height, width, 1, new int[]{0}, null);
+        return new BufferedImage(colorModel(palette), raster, false, null);
+    }
+
+}
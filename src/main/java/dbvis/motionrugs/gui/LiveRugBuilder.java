@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import dbvis.motionrugs.color.BinnedPercentileColorMapper;
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameListener;
+import dbvis.motionrugs.data.FrameSelection;
+import dbvis.motionrugs.data.StreamingDataSet;
+import dbvis.motionrugs.strategies.FrameStrategy;
+import dbvis.motionrugs.strategies.Strategy;
+import java.awt.image.BufferedImage;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Grows the rug of one feature while frames arrive in a StreamingDataSet.
+ * Every frame is ordered with the strategy on arrival and its column appended
+ * to the rug, which doubles its capacity when full.
+ *
+ * The color bins are taken from the first frames (the warm-up), which are
+ * drawn once the bins are known. Later values outside the warm-up range are
+ * colored with the lowest or highest bin. FrameStrategies order all frames on
+ * the grid of the warm-up bounds, so a cell covers the same area in every
+ * column; movers leaving these bounds are put into the border cells. The rug
+ * grows in height when more movers arrive than in any warm-up frame.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class LiveRugBuilder implements FrameListener {
+
+    /**
+     * The default number of frames the color bins are computed from
+     */
+    public static final int DEFAULT_WARMUP = 100;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Strategy strategy;
+    private final String feature;
+    private final int warmup;
+    private final VisPanel panel;
+    private BinnedPercentileColorMapper mapper;
+    //ordering on the grid of the warm-up bounds, null for other strategies
+    private FrameStrategy.FrameOrdering ordering;
+    private IndexedRug rug;
+    private BufferedImage image;
+    private int height;
+    private int frames;
+    private long orderNanos;
+    private long columnNanos;
+
+    /**
+     * @param strategy the strategy ordering every frame
+     * @param feature the displayed feature
+     * @param warmup the number of frames the color bins are computed from
+     */
+    public LiveRugBuilder(Strategy strategy, String feature, int warmup) {
+        this.strategy = strategy;
+        this.feature = feature;
+        this.warmup = Math.max(1, warmup);
+        //the panel stays empty until the warm-up is over
+        BufferedImage empty = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_INDEXED);
+        this.panel = new VisPanel(empty, RugPyramid.Aggregation.MODE);
+        panel.setRug(empty, 0);
+    }
+
+    /**
+     * @return the panel showing the growing rug
+     */
+    public VisPanel getPanel() {
+        return panel;
+    }
+
+    /**
+     * @return the number of frames drawn
+     */
+    public synchronized int getFrames() {
+        return frames;
+    }
+
+    @Override
+    public synchronized void frameAdded(StreamingDataSet dataset, DataPoint[] frame, long frameNumber) {
+        if (mapper == null) {
+            if (dataset.getBufferedFrames() < warmup) {
+                return;
+            }
+            mapper = PNGWriter.createColorMapper(dataset.getDeciles(feature), dataset.getMin(feature), dataset.getMax(feature));
+            DataPoint[][] buffered = dataset.getBaseData();
+            height = FrameSelection.maxMovers(buffered);
+            if (strategy instanceof FrameStrategy) {
+                ordering = ((FrameStrategy) strategy).prepare(FrameSelection.bounds(buffered));
+            }
+            //the warm-up frames are drawn now that the bins are known
+            for (DataPoint[] warm : buffered) {
+                append(warm);
+            }
+        } else {
+            append(frame);
+        }
+
+        final BufferedImage shown = image;
+        final int shownFrames = frames;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                panel.setRug(shown, shownFrames);
+            }
+        });
+
+        if (frames % 1000 == 0) {
+            Logger.getLogger(LiveRugBuilder.class.getName()).log(Level.FINE, "{0} live frames, ordering {1} us/frame, coloring {2} us/frame",
+                    new Object[]{frames, orderNanos / 1000 / 1000, columnNanos / 1000 / 1000});
+            orderNanos = 0;
+            columnNanos = 0;
+        }
+    }
+
+    /**
+     * Orders a frame and appends its column to the rug
+     */
+    private void append(DataPoint[] frame) {
+        long start = System.nanoTime();
+        DataPoint[] ordered = ordering != null ? FrameStrategy.orderFrame(ordering, frame) : strategy.getOrderedValues(new DataPoint[][]{frame})[0];
+        long orderedAt = System.nanoTime();
+
+        if (rug == null || frames == rug.getWidth()) {
+            grow(rug == null ? INITIAL_CAPACITY : rug.getWidth() * 2, Math.max(height, ordered.length));
+        } else if (ordered.length > height) {
+            grow(rug.getWidth(), ordered.length);
+        }
+        byte[] pixels = rug.getIndices();
+        int width = rug.getWidth();
+        for (int y = 0; y < ordered.length; y++) {
+            //searchBin already puts values beyond the warm-up range in the outer bins
+            pixels[y * width + frames] = (byte) mapper.searchBin(ordered[y].getValue(feature));
+        }
+        frames++;
+
+        orderNanos += orderedAt - start;
+        columnNanos += System.nanoTime() - orderedAt;
+    }
+
+    /**
+     * Enlarges the rug, copying the drawn frames. Rows of new movers stay
+     * uncolored in the frames before they joined.
+     */
+    private void grow(int capacity, int rows) {
+        IndexedRug larger = new IndexedRug(capacity, rows, mapper.getColors());
+        if (rug != null) {
+            byte[] from = rug.getIndices();
+            byte[] to = larger.getIndices();
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(from, y * rug.getWidth(), to, y * capacity, frames);
+            }
+        }
+        rug = larger;
+        height = rows;
+        image = rug.toImage();
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import dbvis.motionrugs.data.FrameStreamReader;
+import dbvis.motionrugs.data.StreamingDataSet;
+import dbvis.motionrugs.strategies.Strategies;
+import dbvis.motionrugs.strategies.Strategy;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+
+/**
+ * Window showing the rug of a live stream while it grows, or only its latest
+ * frames in a sliding window. Started from MotionRugsGUI with --live source
+ * feature [strategy] [warmup] [window] [fixed|adaptive], see FrameStreamReader
+ * for the sources.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class LiveRugFrame extends JFrame {
+
+    private final FrameStreamReader reader;
+
+    /**
+     * @param source the source of the stream
+     * @param feature the displayed feature
+     * @param strategy the strategy ordering the frames
+     * @param warmup the number of frames the color bins are computed from
+     * @param window the number of frames shown, or 0 to show all frames
+     * @param scale how the color bins of a window are chosen
+     */
+    public LiveRugFrame(String source, String feature, Strategy strategy, int warmup, int window, SlidingWindowRug.Scale scale) {
+        super("MotionRugs live: " + feature + ", " + strategy.getName());
+        if (window > 0) {
+            StreamingDataSet dataset = new StreamingDataSet(source, window);
+            SlidingWindowRug rug = new SlidingWindowRug(strategy, feature, window, scale, warmup);
+            dataset.addFrameListener(rug);
+            this.reader = new FrameStreamReader(source, dataset);
+            add(rug.getPanel());
+        } else {
+            StreamingDataSet dataset = new StreamingDataSet(source);
+            LiveRugBuilder builder = new LiveRugBuilder(strategy, feature, warmup);
+            dataset.addFrameListener(builder);
+            this.reader = new FrameStreamReader(source, dataset);
+            add(new JScrollPane(builder.getPanel(), JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS));
+        }
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setSize(1024, 400);
+    }
+
+    /**
+     * Starts reading the stream
+     */
+    public void start() {
+        reader.start();
+    }
+
+    /**
+     * Returns the strategy with the given name
+     *
+     * @param name the name of the strategy, as returned by getName()
+     * @return the strategy or null if there is none with this name
+     */
+    public static Strategy getStrategy(String name) {
+        return Strategies.create(name);
+    }
+
+    /**
+     * Opens a live window
+     *
+     * @param args source, feature, optionally the strategy name (default
+     * Hilbert curve), the number of warm-up frames, the window size (0 for
+     * all frames) and the scale of the window (fixed or adaptive)
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: --live <-|tcp:port|file> <feature> [strategy] [warmup frames] [window frames] [fixed|adaptive]");
+            System.exit(-1);
+        }
+        Strategy strategy = getStrategy(args.length > 2 ? args[2] : "Hilbert curve");
+        if (strategy == null) {
+            System.out.println("Unknown strategy " + args[2]);
+            System.exit(-1);
+        }
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : LiveRugBuilder.DEFAULT_WARMUP;
+        int window = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        SlidingWindowRug.Scale scale = args.length > 5 && args[5].equalsIgnoreCase("adaptive") ? SlidingWindowRug.Scale.ADAPTIVE : SlidingWindowRug.Scale.FIXED;
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                LiveRugFrame frame = new LiveRugFrame(args[0], args[1], strategy, warmup, window, scale);
+                frame.setVisible(true);
+                frame.start();
+            }
+        });
+    }
+
+}
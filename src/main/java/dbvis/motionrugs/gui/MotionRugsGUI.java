@@ -15,22 +15,30 @@
  */
 package dbvis.motionrugs.gui;
 
+import dbvis.motionrugs.color.BinnedPercentileColorMapper;
 import dbvis.motionrugs.data.CSVDataLoader;
 import dbvis.motionrugs.data.DataPoint;
 import dbvis.motionrugs.data.DataSet;
+import dbvis.motionrugs.data.MappedDataSet;
 import dbvis.motionrugs.data.SessionData;
+import dbvis.motionrugs.jobs.OrderingPrecomputer;
+import dbvis.motionrugs.jobs.RugJobScheduler;
+import dbvis.motionrugs.strategies.GridCurveStrategy;
 import dbvis.motionrugs.strategies.HilbertCurveStrategy;
-import dbvis.motionrugs.strategies.QuadTreeStrategy;
-import dbvis.motionrugs.strategies.RTreeStrategy;
+import dbvis.motionrugs.strategies.Strategies;
 import dbvis.motionrugs.strategies.Strategy;
 import dbvis.motionrugs.strategies.ZOrderCurveStrategy;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.BoxLayout;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 
 /**
@@ -43,11 +51,10 @@ public class MotionRugsGUI extends javax.swing.JFrame {
     private DataSet curDataSet;
     private JPanel addPanel = new JPanel();
     
-    //Ordering Strategies have to be instantiated here and added below where marked
-    private Strategy pqrstrategy = new QuadTreeStrategy();
-    private Strategy rtreestrategy = new RTreeStrategy();
-    private Strategy zorderstrategy = new ZOrderCurveStrategy();
-    private HilbertCurveStrategy hilbertcurvestrategy = new HilbertCurveStrategy();
+    //Ordering Strategies are instantiated in Strategies, new ones are added there
+    private final List<Strategy> strategies = Strategies.createAll();
+    //orders the datasets in the background while the GUI is idle
+    private OrderingPrecomputer precomputer = new OrderingPrecomputer();
 
     /**
      * Constructor initializing the datasets and strategies
@@ -85,11 +92,18 @@ public class MotionRugsGUI extends javax.swing.JFrame {
 
         jComboBox6.removeAllItems();
         
-        //Adding Strategy to selection menu. Has to be the same string as provided in Strategy Class when calling getName()
-        jComboBox6.addItem("Hilbert curve");
-        jComboBox6.addItem("Point QuadTree");
-        jComboBox6.addItem("R-Tree");
-        jComboBox6.addItem("Z-Order");
+        //Adding Strategy to selection menu by the name provided in Strategy Class when calling getName()
+        for (Strategy strategy : strategies) {
+            jComboBox6.addItem(strategy.getName());
+        }
+
+        //Orders the selected dataset first, then the others, unless disabled with -Dmotionrugs.precompute=false
+        if (!"false".equals(System.getProperty("motionrugs.precompute"))) {
+            precomputer.precompute(curDataSet, strategies, OrderingPrecomputer.PRIORITY_SELECTED);
+            for (String s : data.getDatasetNames()) {
+                precomputer.precompute(data.getDataset(s), strategies, OrderingPrecomputer.PRIORITY_BACKGROUND);
+            }
+        }
         
         //Sets the features according to the ones available in a chosen dataset (except standard features)
         jComboBox4.addActionListener(new ActionListener() {
@@ -97,6 +111,7 @@ public class MotionRugsGUI extends javax.swing.JFrame {
             public void actionPerformed(ActionEvent e) {
                 curDataSet = data.getDataset(jComboBox4.getItemAt(jComboBox4.getSelectedIndex()));
                 System.out.println("Selected Dataset: " + curDataSet.getName());
+                precomputer.prioritize(curDataSet, OrderingPrecomputer.PRIORITY_SELECTED);
                 jComboBox5.removeAllItems();
                 for (String s : curDataSet.getFeatureList()) {
                     if (s.equals("frame") || s.equals("id") || s.equals("x") || s.equals("y")) {
@@ -116,41 +131,98 @@ public class MotionRugsGUI extends javax.swing.JFrame {
                 String selectedStrategy = jComboBox6.getItemAt(jComboBox6.getSelectedIndex());
                 DataSet current = SessionData.getInstance().getDataset(selectedDataSet);
                 BufferedImage bf = null;
-                DataPoint[][] orderedpoints = null;
-
-                //ADD NEW STRATEGIES HERE
-                //According to the selected strategy the data of the chosen dataset is ordered
-                switch (selectedStrategy) {
-                    case "Point QuadTree":
-                        orderedpoints = pqrstrategy.getOrderedValues(current.getBaseData());
-                        break;
-                    case "R-Tree":
-                        orderedpoints = rtreestrategy.getOrderedValues(current.getBaseData());
-                        break;
-                    case "Hilbert curve":
-                        hilbertcurvestrategy.setHilbertOrder(100);
-                        orderedpoints = hilbertcurvestrategy.getOrderedValues(current.getBaseData());
-                        break;
-                    case "Z-Order":
-                        orderedpoints = zorderstrategy.getOrderedValues(current.getBaseData());
-                        break;
+                if (current instanceof MappedDataSet) {
+                    //larger than the heap, the rug is only written as tiles
+                    writeMappedTiles((MappedDataSet) current, selectedFeature, selectedStrategy);
+                    System.out.println("DONE REORDERING");
+                    return;
+                }
+
+                //The ordering does not depend on the feature, so it is only computed once per strategy,
+                //usually already in the background
+                DataPoint[][] orderedpoints = precomputer.get(current, getStrategy(selectedStrategy));
+
+                //Creates an image from the reordered feature values. 
+                if ((long) orderedpoints.length * orderedpoints[0].length > PNGWriter.MAX_PIXELS) {
+                    bf = PNGWriter.drawAndSaveRugs(orderedpoints, current.getMin(selectedFeature), current.getMax(selectedFeature), current.getDeciles(selectedFeature), selectedFeature, current.getName(),selectedStrategy);
+                } else {
+                    //recolored in memory from the stored permutation, saved only from the popup menu
+                    double[][] orderedvalues = current.getOrderedFeature(selectedStrategy, selectedFeature);
+                    BinnedPercentileColorMapper bqcm = PNGWriter.createColorMapper(current.getDeciles(selectedFeature), current.getMin(selectedFeature), current.getMax(selectedFeature));
+                    bf = PNGWriter.renderRug(orderedvalues, bqcm, selectedFeature, VerticalBinning.getDefault()).toImage();
                 }
-                
-                //Creates an image from the reordered data points. 
-                bf = PNGWriter.drawAndSaveRugs(orderedpoints, current.getMin(selectedFeature), current.getMax(selectedFeature), current.getDeciles(selectedFeature), selectedFeature, current.getName(),selectedStrategy);
                 System.out.println("DONE REORDERING"); 
-                repaintPanel(bf);
+                //rugs too large for a single image are only written as tiles
+                if (bf != null) {
+                    repaintPanel(bf, selectedFeature, current.getName(), selectedStrategy);
+                }
             }
         });
     }
 
     /**
-     * Repaints the Panel showing the visualizations.
+     * Returns the configured strategy of the given name
+     *
+     * @param selectedStrategy the name of the strategy
+     * @return the strategy
+     */
+    private Strategy getStrategy(String selectedStrategy) {
+        for (Strategy strategy : strategies) {
+            if (strategy.getName().equals(selectedStrategy)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown strategy " + selectedStrategy);
+    }
+
+    /**
+     * Orders and renders a dataset larger than the heap tile by tile. The
+     * curves use the bounds of the whole dataset, so all tiles share one grid.
+     *
+     * @param current the dataset
+     * @param selectedFeature the feature to draw
+     * @param selectedStrategy the name of the strategy
+     */
+    private void writeMappedTiles(MappedDataSet current, String selectedFeature, String selectedStrategy) {
+        //a new instance, the shared ones may be ordering other datasets in the background
+        Strategy strategy = Strategies.create(selectedStrategy);
+        double[] bounds = current.getBounds();
+        if (strategy instanceof HilbertCurveStrategy) {
+            ((HilbertCurveStrategy) strategy).setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+        } else if (strategy instanceof ZOrderCurveStrategy) {
+            ((ZOrderCurveStrategy) strategy).setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+        } else if (strategy instanceof GridCurveStrategy) {
+            ((GridCurveStrategy) strategy).setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+        try {
+            new TiledRugWriter().writeTiles(current, current.getFrameCount(), strategy, selectedFeature, selectedStrategy);
+        } catch (IOException ex) {
+            Logger.getLogger(MotionRugsGUI.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Repaints the Panel showing the visualizations. The rug can be saved
+     * from the popup menu of its VisPanel.
      * 
      * @param toAdd the Image to be added to the VisPanel
+     * @param featureID the name of the displayed feature
+     * @param dsname the name of the displayed dataset
+     * @param stratid the name of the chosen strategy
      */
-    private void repaintPanel(BufferedImage toAdd) {
-        addPanel.add(new JScrollPane(new VisPanel(toAdd), JScrollPane.VERTICAL_SCROLLBAR_NEVER, JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS));
+    private void repaintPanel(BufferedImage toAdd, String featureID, String dsname, String stratid) {
+        VisPanel panel = new VisPanel(toAdd);
+        JPopupMenu menu = new JPopupMenu();
+        JMenuItem save = new JMenuItem("Save PNG");
+        save.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                PNGWriter.save(toAdd, featureID, dsname, stratid);
+            }
+        });
+        menu.add(save);
+        panel.setComponentPopupMenu(menu);
+        addPanel.add(new JScrollPane(panel, JScrollPane.VERTICAL_SCROLLBAR_NEVER, JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS));
         addPanel.validate();
         this.validate();
         System.out.println("Added.");
@@ -310,6 +382,9 @@ public class MotionRugsGUI extends javax.swing.JFrame {
      * GUI Starter
      * 
      * @param args The first String determines the data directory containing the datasets to be processed. If not set, defaults to /data/*
+     * With --live as first argument, a live stream is shown instead (see LiveRugFrame).
+     * With --batch as first argument, all rugs of the datasets are written without GUI (see RugJobScheduler),
+     * --batch --overview width writes overview rugs of at most width columns.
      */
     public static void main(String args[]) {
         /* Set the Nimbus look and feel */
@@ -351,6 +426,19 @@ public class MotionRugsGUI extends javax.swing.JFrame {
         //</editor-fold>
         //</editor-fold>
 
+        if (args.length > 0 && args[0].equals("--live")) {
+            LiveRugFrame.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            try {
+                RugJobScheduler.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            } catch (InterruptedException ex) {
+                Logger.getLogger(MotionRugsGUI.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            return;
+        }
+
         /* Create and display the form */
         java.awt.EventQueue
                 .invokeLater(new Runnable() {
@@ -0,0 +1,501 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.stream.IntStream;
+
+/**
+ * PNG writer deflating independent blocks of rows in parallel, in the style of
+ * pigz. Every block is compressed as raw deflate data primed with the last 32K
+ * of the previous block and ended with a sync flush, so the concatenated blocks
+ * form one valid zlib stream. The checksums of the blocks are combined
+ * afterwards.
+ *
+ * Images with at most 256 colors can be written with a palette, using 1, 2, 4
+ * or 8 bits per pixel. Rugs with binned colormaps only use a handful of colors,
+ * which makes the indexed files considerably smaller.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class PNGEncoder {
+
+    /**
+     * The PNG row filters
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        /**
+         * Chooses the filter with the smallest sum of absolute differences
+         * per row for truecolor images, and NONE for indexed images as
+         * recommended by the PNG specification
+         */
+        ADAPTIVE
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    //uncompressed bytes per block, as in pigz
+    private static final int BLOCK_BYTES = 128 * 1024;
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    private static final int ADLER_BASE = 65521;
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private Filter filter = Filter.ADAPTIVE;
+    private boolean indexed = true;
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the deflate level, 0 to 9 or -1 for the default
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * @param indexed if true, images with at most 256 colors are written with
+     * a palette
+     */
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * Writes the image as PNG file
+     *
+     * @param image the image to write
+     * @param file the target file
+     * @throws IOException if the file could not be written
+     * @throws IllegalArgumentException if the image is empty, PNG requires
+     * at least one pixel
+     */
+    public void write(BufferedImage image, File file) throws IOException {
+        checkSize(image);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(image, out);
+        }
+    }
+
+    /**
+     * Writes the image as PNG to the given stream
+     *
+     * @param image the image to write
+     * @param out the stream, not closed afterwards
+     * @throws IOException if the stream could not be written
+     * @throws IllegalArgumentException if the image is empty, PNG requires
+     * at least one pixel
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        checkSize(image);
+        Scanlines lines = indexed ? Scanlines.indexed(image) : null;
+        if (lines == null) {
+            lines = Scanlines.truecolor(image);
+        }
+        Filter rowFilter = filter == Filter.ADAPTIVE && lines.palette != null ? Filter.NONE : filter;
+
+        int height = image.getHeight();
+        int rowsPerBlock = Math.max(1, BLOCK_BYTES / (lines.rowBytes + 1));
+        int blocks = (height + rowsPerBlock - 1) / rowsPerBlock;
+
+        //filter all blocks first, the deflaters need the tail of the previous block as dictionary
+        final Scanlines source = lines;
+        byte[][] filtered = new byte[blocks][];
+        IntStream.range(0, blocks).parallel().forEach(b
+                -> filtered[b] = filterRows(source, b * rowsPerBlock, Math.min(height, (b + 1) * rowsPerBlock), rowFilter));
+
+        byte[][] compressed = new byte[blocks][];
+        long[] checksums = new long[blocks];
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            Adler32 adler = new Adler32();
+            adler.update(filtered[b], 0, filtered[b].length);
+            checksums[b] = adler.getValue();
+            compressed[b] = deflate(filtered[b], b > 0 ? filtered[b - 1] : null, b == blocks - 1);
+        });
+
+        long adler = checksums[0];
+        for (int b = 1; b < blocks; b++) {
+            adler = combineAdler(adler, checksums[b], filtered[b].length);
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(image.getWidth());
+        ihdr.writeInt(height);
+        ihdr.writeByte(lines.bitDepth);
+        ihdr.writeByte(lines.palette != null ? 3 : 2);
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        writeChunk(data, "IHDR", header.toByteArray(), 0, header.size());
+
+        if (lines.palette != null) {
+            writeChunk(data, "PLTE", lines.palette, 0, lines.palette.length);
+        }
+
+        writeChunk(data, "IDAT", zlibHeader(), 0, 2);
+        for (byte[] block : compressed) {
+            writeChunk(data, "IDAT", block, 0, block.length);
+        }
+        byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+        writeChunk(data, "IDAT", trailer, 0, 4);
+        writeChunk(data, "IEND", new byte[0], 0, 0);
+        data.flush();
+    }
+
+    private static void checkSize(BufferedImage image) {
+        if (image.getWidth() < 1 || image.getHeight() < 1) {
+            throw new IllegalArgumentException("PNG images need at least one pixel, got " + image.getWidth() + "x" + image.getHeight());
+        }
+    }
+
+    private byte[] zlibHeader() {
+        int level = compressionLevel < 0 ? 6 : compressionLevel;
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += (31 - ((cmf << 8) + flg) % 31) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private byte[] deflate(byte[] input, byte[] previous, boolean last) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (previous != null) {
+                int dict = Math.min(DICTIONARY_BYTES, previous.length);
+                deflater.setDictionary(previous, previous.length - dict, dict);
+            }
+            deflater.setInput(input);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 64);
+            byte[] buffer = new byte[1 << 16];
+            int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+            while (true) {
+                int n = deflater.deflate(buffer, 0, buffer.length, flush);
+                out.write(buffer, 0, n);
+                if (last ? deflater.finished() : (n < buffer.length && deflater.needsInput())) {
+                    break;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive byte sequences, as
+     * adler32_combine in zlib
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= ((long) ADLER_BASE << 1)) {
+            sum2 -= ((long) ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int off, int len) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, off, len);
+        out.writeInt(len);
+        out.write(typeBytes);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Filters the rows [from, to), each prefixed with its filter type
+     */
+    private static byte[] filterRows(Scanlines lines, int from, int to, Filter filter) {
+        int rowBytes = lines.rowBytes;
+        int bpp = lines.bytesPerPixel;
+        byte[] out = new byte[(to - from) * (rowBytes + 1)];
+        byte[] prior = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[] candidate = new byte[rowBytes];
+        byte[] best = new byte[rowBytes];
+        if (from > 0) {
+            lines.read(from - 1, prior);
+        }
+        Filter[] tried = {Filter.NONE, Filter.SUB, Filter.UP, Filter.AVERAGE, Filter.PAETH};
+        int pos = 0;
+        for (int y = from; y < to; y++) {
+            lines.read(y, current);
+            Filter chosen = filter;
+            if (filter == Filter.ADAPTIVE) {
+                long bestSum = Long.MAX_VALUE;
+                for (Filter f : tried) {
+                    long sum = apply(f, current, prior, bpp, candidate);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        chosen = f;
+                        byte[] t = best;
+                        best = candidate;
+                        candidate = t;
+                    }
+                }
+            } else {
+                apply(filter, current, prior, bpp, best);
+            }
+            out[pos++] = (byte) chosen.ordinal();
+            System.arraycopy(best, 0, out, pos, rowBytes);
+            pos += rowBytes;
+            byte[] t = prior;
+            prior = current;
+            current = t;
+        }
+        return out;
+    }
+
+    /**
+     * Applies a filter to a row
+     *
+     * @return the sum of the absolute values of the filtered bytes as signed
+     * bytes, the heuristic of the PNG specification for choosing filters
+     */
+    private static long apply(Filter f, byte[] row, byte[] prior, int bpp, byte[] out) {
+        long sum = 0;
+        for (int i = 0; i < row.length; i++) {
+            int raw = row[i] & 0xFF;
+            int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int up = prior[i] & 0xFF;
+            int value;
+            switch (f) {
+                case SUB:
+                    value = raw - left;
+                    break;
+                case UP:
+                    value = raw - up;
+                    break;
+                case AVERAGE:
+                    value = raw - ((left + up) >>> 1);
+                    break;
+                case PAETH:
+                    value = raw - paeth(left, up, i >= bpp ? prior[i - bpp] & 0xFF : 0);
+                    break;
+                default:
+                    value = raw;
+            }
+            out[i] = (byte) value;
+            sum += Math.abs((int) (byte) value);
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Provides the unfiltered rows of an image in PNG sample layout
+     */
+    private static class Scanlines {
+
+        final BufferedImage image;
+        final int rowBytes;
+        final int bytesPerPixel;
+        final int bitDepth;
+        final byte[] palette;
+        //palette index per RGB value, null if the image already has an IndexColorModel
+        final HashMap<Integer, Integer> indices;
+
+        private Scanlines(BufferedImage image, int rowBytes, int bytesPerPixel, int bitDepth, byte[] palette, HashMap<Integer, Integer> indices) {
+            this.image = image;
+            this.rowBytes = rowBytes;
+            this.bytesPerPixel = bytesPerPixel;
+            this.bitDepth = bitDepth;
+            this.palette = palette;
+            this.indices = indices;
+        }
+
+        static Scanlines truecolor(BufferedImage image) {
+            return new Scanlines(image, image.getWidth() * 3, 3, 8, null, null);
+        }
+
+        /**
+         * @return the indexed scanlines, or null if the image has more than
+         * 256 colors
+         */
+        static Scanlines indexed(BufferedImage image) {
+            int width = image.getWidth();
+            if (image.getColorModel() instanceof IndexColorModel && image.getRaster().getNumBands() == 1) {
+                IndexColorModel icm = (IndexColorModel) image.getColorModel();
+                int size = icm.getMapSize();
+                byte[] palette = new byte[size * 3];
+                for (int i = 0; i < size; i++) {
+                    palette[3 * i] = (byte) icm.getRed(i);
+                    palette[3 * i + 1] = (byte) icm.getGreen(i);
+                    palette[3 * i + 2] = (byte) icm.getBlue(i);
+                }
+                int depth = depthFor(size);
+                return new Scanlines(image, (width * depth + 7) / 8, 1, depth, palette, null);
+            }
+
+            HashMap<Integer, Integer> indices = new HashMap<>();
+            int[] row = new int[width];
+            int last = -1;
+            for (int y = 0; y < image.getHeight(); y++) {
+                readRGB(image, y, row);
+                for (int i = 0; i < width; i++) {
+                    int rgb = row[i] & 0xFFFFFF;
+                    if (rgb == last) {
+                        continue;
+                    }
+                    last = rgb;
+                    if (!indices.containsKey(rgb)) {
+                        if (indices.size() == 256) {
+                            return null;
+                        }
+                        indices.put(rgb, indices.size());
+                    }
+                }
+            }
+            byte[] palette = new byte[indices.size() * 3];
+            for (Map.Entry<Integer, Integer> e : indices.entrySet()) {
+                int i = e.getValue();
+                palette[3 * i] = (byte) (e.getKey() >> 16);
+                palette[3 * i + 1] = (byte) (e.getKey() >> 8);
+                palette[3 * i + 2] = (byte) (int) e.getKey();
+            }
+            int depth = depthFor(indices.size());
+            return new Scanlines(image, (width * depth + 7) / 8, 1, depth, palette, indices);
+        }
+
+        /**
+         * Reads a row of RGB values, avoiding the color model conversion for
+         * images already stored as RGB ints
+         */
+        private static void readRGB(BufferedImage image, int y, int[] row) {
+            int width = image.getWidth();
+            if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                image.getRaster().getDataElements(0, y, width, 1, row);
+            } else {
+                image.getRGB(0, y, width, 1, row, 0, width);
+            }
+        }
+
+        private static int depthFor(int colors) {
+            return colors <= 2 ? 1 : colors <= 4 ? 2 : colors <= 16 ? 4 : 8;
+        }
+
+        /**
+         * Reads row y into out, packing palette indices to the bit depth
+         */
+        void read(int y, byte[] out) {
+            int width = image.getWidth();
+            int[] samples = new int[width];
+            if (palette == null) {
+                readRGB(image, y, samples);
+                for (int i = 0; i < width; i++) {
+                    out[3 * i] = (byte) (samples[i] >> 16);
+                    out[3 * i + 1] = (byte) (samples[i] >> 8);
+                    out[3 * i + 2] = (byte) samples[i];
+                }
+                return;
+            }
+            if (indices == null && bitDepth == 8 && image.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+                image.getRaster().getDataElements(0, y, width, 1, out);
+                return;
+            } else if (indices == null) {
+                Raster raster = image.getRaster();
+                raster.getSamples(0, y, width, 1, 0, samples);
+            } else {
+                readRGB(image, y, samples);
+                int lastRGB = ~samples[0];
+                int lastIndex = 0;
+                for (int i = 0; i < width; i++) {
+                    int rgb = samples[i] & 0xFFFFFF;
+                    if (rgb != lastRGB) {
+                        lastRGB = rgb;
+                        lastIndex = indices.get(rgb);
+                    }
+                    samples[i] = lastIndex;
+                }
+            }
+            if (bitDepth == 8) {
+                for (int i = 0; i < width; i++) {
+                    out[i] = (byte) samples[i];
+                }
+                return;
+            }
+            Arrays.fill(out, (byte) 0);
+            int perByte = 8 / bitDepth;
+            for (int i = 0; i < width; i++) {
+                int shift = 8 - bitDepth * (i % perByte + 1);
+                out[i / perByte] |= (byte) (samples[i] << shift);
+            }
+        }
+    }
+
+}
@@ -17,42 +17,246 @@ package dbvis.motionrugs.gui;
 
 import dbvis.motionrugs.color.BinnedPercentileColorMapper;
 import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.DataSet;
+import dbvis.motionrugs.data.FrameSelection;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
 
 /**
  * PNGWriter is responsible for the creation of the visualization images. It
  * applies Colormaps and returns BufferedImages. Also, saves the resulting
- * images.
+ * images. Rugs are rendered as one bin index per pixel (see IndexedRug) and
+ * returned as palette images sharing these indices. Rugs with more movers than
+ * the maximum height are aggregated vertically (see VerticalBinning).
  *
  * @author Juri Buchmüller, University of Konstanz
  * <buchmueller@dbvis.inf.uni-konstanz.de>
  */
 public class PNGWriter {
 
+    /**
+     * The largest number of pixels of a single rug image, larger rugs are
+     * written as tiles by the TiledRugWriter
+     */
+    public static final long MAX_PIXELS = Integer.MAX_VALUE - 8;
+
+    private static PNGEncoder encoder = new PNGEncoder();
+
+    //number of frames colored together, their points stay in cache while the image rows are filled
+    private static final int BLOCK_FRAMES = 64;
+
+    /**
+     * @return the encoder used to save the rugs
+     */
+    public static PNGEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Sets the encoder used to save the rugs, e.g. to change compression
+     * level or filters
+     *
+     * @param encoder the encoder
+     */
+    public static void setEncoder(PNGEncoder encoder) {
+        PNGWriter.encoder = encoder;
+    }
+
     /**
      *
      * According to a chosen Colormapper, creates a BufferedImage of a Rugs
      * using one feature, saves it to the default project directory and returns
      * the image for display in the GUI
      *
-     * @param da the array with ordered values
+     * @param da the array with ordered values, e.g. of a selection (see
+     * DataSet.getFrames), shorter frames are left black at the bottom
      * @param min min value of the feature values for the color mapping
      * @param max max value of the feature values for the color mapping
      * @param decs the percentiles (bins) for the colors (limited to 10 currently)
      * @param featureID the name of the displayed feature
      * @param dsname the name of the displayed dataset
      * @param stratid the name of the chosen strategy
-     * @return the MotionRug created from the ordered data
+     * @return the MotionRug created from the ordered data, or null if the rug
+     * was too large for a single image and has been written as tiles
      */
     public static BufferedImage drawAndSaveRugs(DataPoint[][] da, double min, double max, Double[] decs, String featureID, String dsname, String stratid) {
 
-        BufferedImage awtImage = new BufferedImage(da.length, da[0].length, BufferedImage.TYPE_INT_RGB);
+        VerticalBinning binning = VerticalBinning.getDefault();
+        if ((long) da.length * binning.heightFor(FrameSelection.maxMovers(da)) > MAX_PIXELS) {
+            //too large for a single image, written as tiles instead
+            System.out.println("Rug exceeds " + MAX_PIXELS + " pixels, writing tiles.");
+            try {
+                new TiledRugWriter().writeTiles(da, min, max, decs, featureID, dsname, stratid);
+            } catch (IOException ex) {
+                Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            return null;
+        }
+
+        BufferedImage awtImage = renderRug(da, createColorMapper(decs, min, max), featureID, binning).toImage();
+        save(awtImage, featureID, dsname, stratid);
+        return awtImage;
+    }
+
+    /**
+     * Creates a BufferedImage of a Rug from already ordered feature values
+     * (see DataSet.getOrderedFeature), saves it to the default project
+     * directory and returns the image for display in the GUI. As no DataPoints
+     * are involved, this is a pure recoloring pass.
+     *
+     * @param values the ordered values of the feature
+     * @param min min value of the feature values for the color mapping
+     * @param max max value of the feature values for the color mapping
+     * @param decs the percentiles (bins) for the colors (limited to 10 currently)
+     * @param featureID the name of the displayed feature
+     * @param dsname the name of the displayed dataset
+     * @param stratid the name of the chosen strategy
+     * @return the MotionRug created from the ordered values
+     */
+    public static BufferedImage drawAndSaveRugs(double[][] values, double min, double max, Double[] decs, String featureID, String dsname, String stratid) {
+        BufferedImage awtImage = renderRug(values, createColorMapper(decs, min, max), featureID, VerticalBinning.getDefault()).toImage();
+        save(awtImage, featureID, dsname, stratid);
+        return awtImage;
+    }
+
+    /**
+     * Saves a rug to the default project directory, named after its dataset,
+     * feature and strategy
+     *
+     * @param awtImage the rug
+     * @param featureID the name of the displayed feature
+     * @param dsname the name of the displayed dataset
+     * @param stratid the name of the chosen strategy
+     */
+    public static void save(BufferedImage awtImage, String featureID, String dsname, String stratid) {
+        File outputfile = new File(dsname + "_" + featureID + "_" + stratid + ".png");
+        try {
+            encoder.write(awtImage, outputfile);
+        } catch (IOException ex) {
+            Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Colors the ordered values of one feature into a palette-indexed rug,
+     * without saving it
+     *
+     * @param da the array with ordered values
+     * @param min min value of the feature values for the color mapping
+     * @param max max value of the feature values for the color mapping
+     * @param decs the percentiles (bins) for the colors (limited to 10 currently)
+     * @param featureID the name of the displayed feature
+     * @return the rug as bin indices and palette
+     */
+    public static IndexedRug renderRug(DataPoint[][] da, double min, double max, Double[] decs, String featureID) {
+        BinnedPercentileColorMapper bqcm = createColorMapper(decs, min, max);
+        IndexedRug rug = new IndexedRug(da.length, FrameSelection.maxMovers(da), bqcm.getColors());
+        drawColumns(da, 0, da.length, bqcm, featureID, rug);
+        return rug;
+    }
+
+    /**
+     * Colors ordered feature values into a palette-indexed rug, without saving
+     * it
+     *
+     * @param values the ordered values of the feature
+     * @param bqcm the color mapper
+     * @param featureID the name of the feature, for error messages
+     * @return the rug as bin indices and palette
+     */
+    public static IndexedRug renderRug(double[][] values, BinnedPercentileColorMapper bqcm, String featureID) {
+        int height = 0;
+        for (double[] column : values) {
+            height = Math.max(height, column.length);
+        }
+        IndexedRug rug = new IndexedRug(values.length, height, bqcm.getColors());
+        byte[] pixels = rug.getIndices();
+        int width = values.length;
+        double min = bqcm.getMin();
+        double max = bqcm.getMax();
+        int outOfRange = 0;
+        for (int block = 0; block < width; block += BLOCK_FRAMES) {
+            int blockEnd = Math.min(width, block + BLOCK_FRAMES);
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int x = block; x < blockEnd; x++) {
+                    double[] column = values[x];
+                    if (y >= column.length) {
+                        continue;
+                    }
+                    double value = column[y];
+                    //NaN is out of range as well
+                    if (!(value >= min && value <= max)) {
+                        outOfRange++;
+                        continue;
+                    }
+                    pixels[row + x] = (byte) bqcm.searchBin(value);
+                }
+            }
+        }
+        if (outOfRange > 0) {
+            Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, "{0} values of {1} are outside the range from {2} to {3}",
+                    new Object[]{outOfRange, featureID, min, max});
+        }
+        return rug;
+    }
+
+    /**
+     * Colors the ordered values of one feature into a palette-indexed rug,
+     * aggregating movers if there are more than the height of the binning
+     *
+     * @param da the array with ordered values
+     * @param bqcm the color mapper
+     * @param featureID the name of the displayed feature
+     * @param binning the vertical aggregation
+     * @return the rug as bin indices and palette
+     */
+    public static IndexedRug renderRug(DataPoint[][] da, BinnedPercentileColorMapper bqcm, String featureID, VerticalBinning binning) {
+        int movers = FrameSelection.maxMovers(da);
+        IndexedRug rug = new IndexedRug(da.length, binning.heightFor(movers), bqcm.getColors());
+        if (movers > binning.getHeight()) {
+            binning.draw(da, 0, da.length, movers, bqcm, featureID, rug);
+        } else {
+            drawColumns(da, 0, da.length, bqcm, featureID, rug);
+        }
+        return rug;
+    }
+
+    /**
+     * Colors ordered feature values into a palette-indexed rug, aggregating
+     * movers if there are more than the height of the binning
+     *
+     * @param values the ordered values of the feature
+     * @param bqcm the color mapper
+     * @param featureID the name of the feature, for error messages
+     * @param binning the vertical aggregation
+     * @return the rug as bin indices and palette
+     */
+    public static IndexedRug renderRug(double[][] values, BinnedPercentileColorMapper bqcm, String featureID, VerticalBinning binning) {
+        int movers = 0;
+        for (double[] column : values) {
+            movers = Math.max(movers, column.length);
+        }
+        if (movers <= binning.getHeight()) {
+            return renderRug(values, bqcm, featureID);
+        }
+        IndexedRug rug = new IndexedRug(values.length, binning.heightFor(movers), bqcm.getColors());
+        binning.draw(values, movers, bqcm, featureID, rug);
+        return rug;
+    }
+
+    /**
+     * @return the colors of the bins used for all rugs, from low to high
+     * values
+     */
+    public static Color[] getDefaultColors() {
         Color c1 = new Color(165, 0, 38);
         Color c2 = new Color(215, 48, 39);
         Color c3 = new Color(244, 109, 67);
@@ -65,32 +269,133 @@ public class PNGWriter {
         Color c10 = new Color(49, 54, 149);
 
         Color[] colors = {c10, c9, c8, c7, c6, c5, c4, c3, c2, c1};
-        
-        BinnedPercentileColorMapper bqcm = new BinnedPercentileColorMapper(decs, min, max, colors);
-
-        for (int x = 0; x < da.length; x++) {
-            for (int y = 0; y < da[x].length; y++) {
-                try {
-                    if (da[x][y].getValue(featureID) < min) {
-                        System.out.println("ERROR: " + featureID + " " + da[x][y].getValue(featureID) + "<" + min + ", id " + min + ", frame " + y);
-                    }
-                    awtImage.setRGB(x, y, bqcm.getColorByValue(da[x][y].getValue(featureID)).getRGB());
+        return colors;
+    }
+
+    /**
+     * Creates the binned color mapper used for all rugs
+     *
+     * @param decs the percentiles (bins) for the colors (limited to 10 currently)
+     * @param min min value of the feature values for the color mapping
+     * @param max max value of the feature values for the color mapping
+     * @return the color mapper
+     */
+    public static BinnedPercentileColorMapper createColorMapper(Double[] decs, double min, double max) {
+        return new BinnedPercentileColorMapper(decs, min, max, getDefaultColors());
+    }
 
-                } catch (Exception ex) {
-                    System.out.println(featureID);
-                    Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Creates the rugs of several features for the same ordering in a single
+     * pass over the ordered values, saves them to the default project
+     * directory and returns them by feature.
+     *
+     * @param da the array with ordered values
+     * @param ds the dataset providing min, max and percentiles of the features
+     * @param features the features to draw
+     * @param stratid the name of the chosen strategy
+     * @return the MotionRugs created from the ordered data, by feature
+     */
+    public static Map<String, BufferedImage> drawAndSaveRugs(DataPoint[][] da, DataSet ds, List<String> features, String stratid) {
+        String[] featureIDs = features.toArray(new String[features.size()]);
+        BinnedPercentileColorMapper[] mappers = new BinnedPercentileColorMapper[featureIDs.length];
+        IndexedRug[] indexed = new IndexedRug[featureIDs.length];
+        VerticalBinning binning = VerticalBinning.getDefault();
+        int movers = FrameSelection.maxMovers(da);
+        for (int f = 0; f < featureIDs.length; f++) {
+            mappers[f] = createColorMapper(ds.getDeciles(featureIDs[f]), ds.getMin(featureIDs[f]), ds.getMax(featureIDs[f]));
+            indexed[f] = new IndexedRug(da.length, binning.heightFor(movers), mappers[f].getColors());
+        }
+
+        if (movers > binning.getHeight()) {
+            for (int f = 0; f < featureIDs.length; f++) {
+                binning.draw(da, 0, da.length, movers, mappers[f], featureIDs[f], indexed[f]);
+            }
+        } else {
+            drawColumns(da, 0, da.length, mappers, featureIDs, indexed);
+        }
+
+        Map<String, BufferedImage> rugs = new LinkedHashMap<>();
+        for (int f = 0; f < featureIDs.length; f++) {
+            BufferedImage image = indexed[f].toImage();
+            File outputfile = new File(ds.getName() + "_" + featureIDs[f] + "_" + stratid + ".png");
+            try {
+                encoder.write(image, outputfile);
+            } catch (IOException ex) {
+                Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            rugs.put(featureIDs[f], image);
+        }
+        return rugs;
+    }
+
+    /**
+     * Colors the frames [from, to) of the ordered values into the given rug,
+     * starting at its first column
+     *
+     * @param da the array with ordered values
+     * @param from the first frame to draw
+     * @param to the frame after the last frame to draw
+     * @param bqcm the color mapper
+     * @param featureID the name of the displayed feature
+     * @param target the rug to draw into
+     */
+    static void drawColumns(DataPoint[][] da, int from, int to, BinnedPercentileColorMapper bqcm, String featureID, IndexedRug target) {
+        drawColumns(da, from, to, new BinnedPercentileColorMapper[]{bqcm}, new String[]{featureID}, new IndexedRug[]{target});
+    }
+
+    /**
+     * Colors the frames [from, to) of the ordered values into one rug per
+     * feature, starting at their first column. The frames are traversed once
+     * in blocks, so the points of a block stay in cache while the rows of all
+     * rugs are filled.
+     *
+     * @param da the array with ordered values
+     * @param from the first frame to draw
+     * @param to the frame after the last frame to draw
+     * @param mappers the color mapper per feature
+     * @param featureIDs the names of the features
+     * @param targets the rugs to draw the bin indices into, one per feature
+     */
+    static void drawColumns(DataPoint[][] da, int from, int to, BinnedPercentileColorMapper[] mappers, String[] featureIDs, IndexedRug[] targets) {
+        int features = featureIDs.length;
+        byte[][] pixels = new byte[features][];
+        int[] outOfRange = new int[features];
+        for (int f = 0; f < features; f++) {
+            pixels[f] = targets[f].getIndices();
+        }
+
+        int width = targets[0].getWidth();
+        for (int block = from; block < to; block += BLOCK_FRAMES) {
+            int blockEnd = Math.min(to, block + BLOCK_FRAMES);
+            int height = 0;
+            for (int x = block; x < blockEnd; x++) {
+                height = Math.max(height, da[x].length);
+            }
+            for (int y = 0; y < height; y++) {
+                int row = y * width - from;
+                for (int x = block; x < blockEnd; x++) {
+                    if (y >= da[x].length) {
+                        continue;
+                    }
+                    DataPoint dp = da[x][y];
+                    for (int f = 0; f < features; f++) {
+                        double value = dp.getValue(featureIDs[f]);
+                        if (!(value >= mappers[f].getMin() && value <= mappers[f].getMax())) {
+                            outOfRange[f]++;
+                            continue;
+                        }
+                        pixels[f][row + x] = (byte) mappers[f].searchBin(value);
+                    }
                 }
             }
         }
 
-        File outputfile = new File(dsname + "_" + featureID + "_" + stratid + ".png");
-        try {
-            ImageIO.write(awtImage, "png", outputfile);
-            return awtImage;
-        } catch (IOException ex) {
-            Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, null, ex);
+        for (int f = 0; f < features; f++) {
+            if (outOfRange[f] > 0) {
+                Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, "{0} values of {1} are outside the range from {2} to {3}",
+                        new Object[]{outOfRange[f], featureIDs[f], mappers[f].getMin(), mappers[f].getMax()});
+            }
         }
-        return awtImage;
     }
 
 }
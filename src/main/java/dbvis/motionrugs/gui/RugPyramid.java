@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Multi-resolution representation of a rug along the time axis. Level 0 is the
+ * rug itself, every further level halves the number of frames by aggregating
+ * adjacent columns. Levels are built lazily when they are first requested.
+ *
+ * The rug may grow: only the first frames of the base image can be in use, and
+ * when more frames are added only the new columns of a level are aggregated
+ * the next time it is requested.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class RugPyramid {
+
+    /**
+     * How the colors of the frames falling into one pixel column are combined
+     */
+    public enum Aggregation {
+        /**
+         * The mean of the RGB channels
+         */
+        MEAN,
+        /**
+         * The most frequent color, keeping the colors of binned colormaps.
+         * Palette images are aggregated on their indices.
+         */
+        MODE
+    }
+
+    private final ArrayList<BufferedImage> levels = new ArrayList<>();
+    //number of base frames aggregated into each level
+    private final int[] aggregated = new int[32];
+    private final Aggregation aggregation;
+    private BufferedImage base;
+    private int frames;
+
+    /**
+     * @param base the full resolution rug
+     * @param aggregation how columns are combined in the coarser levels
+     */
+    public RugPyramid(BufferedImage base, Aggregation aggregation) {
+        this.aggregation = aggregation;
+        update(base, base.getWidth());
+    }
+
+    /**
+     * Updates the rug of a growing pyramid. If the base image is replaced,
+     * e.g. by a larger one, all levels are dropped, otherwise the levels are
+     * extended by the new frames when requested.
+     *
+     * @param base the full resolution rug
+     * @param frames the number of frames in use, starting from the left
+     */
+    public synchronized void update(BufferedImage base, int frames) {
+        if (base != this.base) {
+            this.base = base;
+            levels.clear();
+            levels.add(base);
+            Arrays.fill(aggregated, 0);
+        }
+        this.frames = Math.min(frames, base.getWidth());
+        aggregated[0] = this.frames;
+    }
+
+    /**
+     * @return the number of frames in use
+     */
+    public synchronized int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of available levels
+     */
+    public synchronized int getLevelCount() {
+        int count = 1;
+        while ((frames >> count) > 0) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the level matching the given zoom, i.e. the coarsest level that
+     * still has at least one column per display pixel.
+     *
+     * @param framesPerPixel the number of frames covered by a display pixel
+     * @return the level index
+     */
+    public int levelFor(double framesPerPixel) {
+        int levelCount = getLevelCount();
+        int level = 0;
+        while (level + 1 < levelCount && (1L << (level + 1)) <= framesPerPixel) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the number of columns of a level covering the frames in use
+     *
+     * @param level the level index
+     * @return the number of columns in use
+     */
+    public synchronized int getColumns(int level) {
+        return (int) ((frames + (1L << level) - 1) >> level);
+    }
+
+    /**
+     * Returns a level of the pyramid, building it or aggregating new frames if
+     * necessary. Level l covers 2^l frames per column.
+     *
+     * @param level the level index
+     * @return the image of the level
+     */
+    public synchronized BufferedImage getLevel(int level) {
+        for (int l = 1; l <= level; l++) {
+            if (levels.size() <= l) {
+                levels.add(createLevel(l));
+            }
+            if (aggregated[l] < frames) {
+                //the last column may have been partial, so it is aggregated again
+                int from = aggregated[l] >> l;
+                int to = getColumns(l);
+                if (aggregation == Aggregation.MODE && isIndexed(base)) {
+                    modeColumnsIndexed(base, frames, levels.get(l), 1 << l, from, to);
+                } else if (aggregation == Aggregation.MODE) {
+                    modeColumns(base, frames, levels.get(l), 1 << l, from, to);
+                } else {
+                    meanColumns(levels.get(l - 1), getColumns(l - 1), levels.get(l), from, to);
+                }
+                aggregated[l] = frames;
+            }
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * Creates an empty level sized for the whole base image
+     */
+    private BufferedImage createLevel(int level) {
+        int block = 1 << level;
+        int width = (base.getWidth() + block - 1) / block;
+        if (aggregation == Aggregation.MODE && isIndexed(base)) {
+            return new BufferedImage(width, base.getHeight(), BufferedImage.TYPE_BYTE_INDEXED, (IndexColorModel) base.getColorModel());
+        }
+        return new BufferedImage(width, base.getHeight(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Averages pairs of columns of the finer level into the columns from..to
+     * of the level
+     */
+    private static void meanColumns(BufferedImage finer, int finerWidth, BufferedImage level, int from, int to) {
+        int height = finer.getHeight();
+        int inFrom = 2 * from;
+        int inTo = Math.min(finerWidth, 2 * to);
+        int[] in = new int[inTo - inFrom];
+        int[] out = new int[to - from];
+        for (int y = 0; y < height; y++) {
+            readRow(finer, inFrom, y, in);
+            for (int x = 0; x < out.length; x++) {
+                int p = in[2 * x];
+                int q = inFrom + 2 * x + 1 < inTo ? in[2 * x + 1] : p;
+                int r = (((p >> 16) & 0xFF) + ((q >> 16) & 0xFF)) >> 1;
+                int g = (((p >> 8) & 0xFF) + ((q >> 8) & 0xFF)) >> 1;
+                int bl = ((p & 0xFF) + (q & 0xFF)) >> 1;
+                out[x] = (r << 16) | (g << 8) | bl;
+            }
+            level.getRaster().setDataElements(from, y, out.length, 1, out);
+        }
+    }
+
+    /**
+     * Sets the columns from..to of the level to the most frequent color of
+     * their block of base frames
+     */
+    private static void modeColumns(BufferedImage base, int frames, BufferedImage level, int block, int from, int to) {
+        int height = base.getHeight();
+        int inFrom = from * block;
+        int inTo = Math.min(frames, to * block);
+        int[] in = new int[inTo - inFrom];
+        int[] out = new int[to - from];
+        //rugs use few distinct colors, so a linear scan of the colors seen is cheap
+        int[] colors = new int[16];
+        int[] counts = new int[16];
+        for (int y = 0; y < height; y++) {
+            readRow(base, inFrom, y, in);
+            for (int x = 0; x < out.length; x++) {
+                int end = Math.min(in.length, (x + 1) * block);
+                int distinct = 0;
+                int best = 0;
+                for (int i = x * block; i < end; i++) {
+                    int c = in[i];
+                    int j = 0;
+                    while (j < distinct && colors[j] != c) {
+                        j++;
+                    }
+                    if (j == distinct) {
+                        if (distinct == colors.length) {
+                            colors = Arrays.copyOf(colors, distinct * 2);
+                            counts = Arrays.copyOf(counts, distinct * 2);
+                        }
+                        colors[j] = c;
+                        counts[j] = 0;
+                        distinct++;
+                    }
+                    counts[j]++;
+                    if (counts[j] > counts[best]) {
+                        best = j;
+                    }
+                }
+                out[x] = colors[best];
+            }
+            level.getRaster().setDataElements(from, y, out.length, 1, out);
+        }
+    }
+
+    /**
+     * @return true if the image stores one palette index byte per pixel
+     */
+    static boolean isIndexed(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_BYTE_INDEXED;
+    }
+
+    /**
+     * Mode aggregation working on the palette indices directly. The level
+     * keeps the palette of the base.
+     */
+    private static void modeColumnsIndexed(BufferedImage base, int frames, BufferedImage level, int block, int from, int to) {
+        int height = base.getHeight();
+        int inFrom = from * block;
+        int inTo = Math.min(frames, to * block);
+        byte[] in = new byte[inTo - inFrom];
+        byte[] out = new byte[to - from];
+        int[] counts = new int[256];
+        for (int y = 0; y < height; y++) {
+            base.getRaster().getDataElements(inFrom, y, in.length, 1, in);
+            for (int x = 0; x < out.length; x++) {
+                int start = x * block;
+                int end = Math.min(in.length, start + block);
+                int best = in[start] & 0xFF;
+                for (int i = start; i < end; i++) {
+                    int c = in[i] & 0xFF;
+                    counts[c]++;
+                    if (counts[c] > counts[best]) {
+                        best = c;
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    counts[in[i] & 0xFF] = 0;
+                }
+                out[x] = (byte) best;
+            }
+            level.getRaster().setDataElements(from, y, out.length, 1, out);
+        }
+    }
+
+    /**
+     * Reads part of a row of RGB values, avoiding the color model conversion
+     * for images already stored as RGB ints
+     */
+    private static void readRow(BufferedImage image, int x, int y, int[] row) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            image.getRaster().getDataElements(x, y, row.length, 1, row);
+        } else {
+            image.getRGB(x, y, row.length, 1, row, 0, row.length);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import javax.swing.JPanel;
+
+/**
+ * Shows a rug stored in a circular column buffer, oldest frame left. The
+ * window is fitted to the panel, so repainting costs the same however long
+ * the stream runs.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class SlidingRugPanel extends JPanel {
+
+    private BufferedImage bf;
+    private long frames;
+
+    /**
+     * @param height the preferred height of the panel
+     */
+    public SlidingRugPanel(int height) {
+        super();
+        setPreferredSize(new Dimension(1024, height));
+    }
+
+    /**
+     * Shows a new state of the window
+     *
+     * @param bf the circular rug, frame f is stored in column f % width
+     * @param frames the number of frames received so far
+     */
+    public void setWindow(BufferedImage bf, long frames) {
+        this.bf = bf;
+        this.frames = frames;
+        repaint();
+    }
+
+    @Override
+    public void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (bf == null || frames == 0) {
+            return;
+        }
+        int window = bf.getWidth();
+        int height = bf.getHeight();
+        double pixelsPerFrame = (double) getWidth() / window;
+        if (frames < window) {
+            //not filled yet, the frames are in order from column 0
+            g.drawImage(bf, 0, 0, (int) Math.round(frames * pixelsPerFrame), getHeight(), 0, 0, (int) frames, height, null);
+            return;
+        }
+        //the oldest frame is stored right of the newest one
+        int head = (int) (frames % window);
+        int split = (int) Math.round((window - head) * pixelsPerFrame);
+        g.drawImage(bf, 0, 0, split, getHeight(), head, 0, window, height, null);
+        if (head > 0) {
+            g.drawImage(bf, split, 0, getWidth(), getHeight(), 0, 0, head, height, null);
+        }
+    }
+
+}
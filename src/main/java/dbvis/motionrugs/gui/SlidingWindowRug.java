@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import dbvis.motionrugs.color.BinnedPercentileColorMapper;
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameListener;
+import dbvis.motionrugs.data.FrameSelection;
+import dbvis.motionrugs.data.StreamingDataSet;
+import dbvis.motionrugs.strategies.FrameStrategy;
+import dbvis.motionrugs.strategies.Strategy;
+import java.awt.image.BufferedImage;
+import javax.swing.SwingUtilities;
+
+/**
+ * Rug of the latest frames of a stream. Orderings and pixels are kept in
+ * circular buffers of the window size, frame f in slot f % window, so memory
+ * stays constant however long the stream runs. The frames themselves are
+ * buffered by the StreamingDataSet, which needs at least the window as
+ * capacity.
+ *
+ * With a FIXED scale, the color bins are taken from the warm-up frames. With
+ * an ADAPTIVE scale, the bins are updated every few frames from the deciles
+ * of the frames buffered by the dataset, recoloring the window. The scale is
+ * decile-only: pixels are colored by their bin, min and max do not change
+ * the colors. The dataset should buffer about as many frames as the window.
+ *
+ * FrameStrategies order all frames on the grid of the warm-up bounds, so the
+ * columns of the window are comparable; movers leaving these bounds are put
+ * into the border cells.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class SlidingWindowRug implements FrameListener {
+
+    /**
+     * How the color bins are chosen
+     */
+    public enum Scale {
+        /**
+         * Bins of the warm-up frames for the whole stream
+         */
+        FIXED,
+        /**
+         * Bins of the deciles of the frames buffered by the dataset
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * The default number of frames between updates of an adaptive scale
+     */
+    public static final int DEFAULT_UPDATE_INTERVAL = 30;
+
+    private final Strategy strategy;
+    private final String feature;
+    private final int window;
+    private final Scale scale;
+    private final int warmup;
+    private final int updateInterval;
+    private final SlidingRugPanel panel;
+    private final DataPoint[][] orderings;
+    private BinnedPercentileColorMapper mapper;
+    //ordering on the grid of the warm-up bounds, null for other strategies
+    private FrameStrategy.FrameOrdering ordering;
+    private IndexedRug rug;
+    private BufferedImage image;
+    private int height;
+    private long frames;
+
+    /**
+     * @param strategy the strategy ordering every frame
+     * @param feature the displayed feature
+     * @param window the number of frames shown
+     * @param scale how the color bins are chosen
+     * @param warmup the number of frames the first color bins are computed
+     * from
+     */
+    public SlidingWindowRug(Strategy strategy, String feature, int window, Scale scale, int warmup) {
+        this(strategy, feature, window, scale, warmup, DEFAULT_UPDATE_INTERVAL);
+    }
+
+    /**
+     * @param strategy the strategy ordering every frame
+     * @param feature the displayed feature
+     * @param window the number of frames shown
+     * @param scale how the color bins are chosen
+     * @param warmup the number of frames the first color bins are computed
+     * from
+     * @param updateInterval the number of frames between updates of an
+     * adaptive scale
+     */
+    public SlidingWindowRug(Strategy strategy, String feature, int window, Scale scale, int warmup, int updateInterval) {
+        this.strategy = strategy;
+        this.feature = feature;
+        this.window = window;
+        this.scale = scale;
+        this.warmup = Math.max(1, Math.min(window, warmup));
+        this.updateInterval = Math.max(1, updateInterval);
+        this.orderings = new DataPoint[window][];
+        this.panel = new SlidingRugPanel(300);
+    }
+
+    /**
+     * @return the panel showing the window
+     */
+    public SlidingRugPanel getPanel() {
+        return panel;
+    }
+
+    /**
+     * @return the number of frames drawn
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public synchronized void frameAdded(StreamingDataSet dataset, DataPoint[] frame, long frameNumber) {
+        if (mapper == null) {
+            if (dataset.getBufferedFrames() < warmup) {
+                return;
+            }
+            mapper = PNGWriter.createColorMapper(dataset.getDeciles(feature), dataset.getMin(feature), dataset.getMax(feature));
+            DataPoint[][] buffered = dataset.getBaseData();
+            height = FrameSelection.maxMovers(buffered);
+            if (strategy instanceof FrameStrategy) {
+                ordering = ((FrameStrategy) strategy).prepare(FrameSelection.bounds(buffered));
+            }
+            rug = new IndexedRug(window, height, mapper.getColors());
+            image = rug.toImage();
+            //the warm-up frames are drawn now that the bins are known
+            for (DataPoint[] warm : buffered) {
+                append(warm);
+            }
+        } else {
+            append(frame);
+        }
+
+        if (scale == Scale.ADAPTIVE && frames % updateInterval == 0) {
+            rescale(dataset);
+        }
+
+        final long shownFrames = frames;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                panel.setWindow(image, shownFrames);
+            }
+        });
+    }
+
+    /**
+     * Orders a frame and replaces the oldest column of the window with it
+     */
+    private void append(DataPoint[] frame) {
+        DataPoint[] ordered = ordering != null ? FrameStrategy.orderFrame(ordering, frame) : strategy.getOrderedValues(new DataPoint[][]{frame})[0];
+        int slot = (int) (frames % window);
+        orderings[slot] = ordered;
+
+        if (ordered.length > height) {
+            //more movers than ever before, the window is redrawn in a taller rug
+            height = ordered.length;
+            rug = new IndexedRug(window, height, mapper.getColors());
+            image = rug.toImage();
+            redraw();
+        }
+        drawColumn(slot);
+        frames++;
+    }
+
+    private void redraw() {
+        int columns = (int) Math.min(frames, window);
+        for (int x = 0; x < columns; x++) {
+            drawColumn(x);
+        }
+    }
+
+    private void drawColumn(int slot) {
+        DataPoint[] ordered = orderings[slot];
+        byte[] pixels = rug.getIndices();
+        int rows = Math.min(height, ordered.length);
+        for (int y = 0; y < rows; y++) {
+            //searchBin puts values beyond the range in the outer bins
+            pixels[y * window + slot] = (byte) mapper.searchBin(ordered[y].getValue(feature));
+        }
+        for (int y = rows; y < height; y++) {
+            pixels[y * window + slot] = (byte) mapper.getColors().length;
+        }
+    }
+
+    /**
+     * Takes the bins from the deciles of the frames buffered by the dataset
+     * and recolors the window
+     */
+    private void rescale(StreamingDataSet dataset) {
+        mapper = PNGWriter.createColorMapper(dataset.getDeciles(feature), dataset.getMin(feature), dataset.getMax(feature));
+        redraw();
+    }
+
+}
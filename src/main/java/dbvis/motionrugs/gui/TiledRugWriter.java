@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import dbvis.motionrugs.color.BinnedPercentileColorMapper;
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.DataSet;
+import dbvis.motionrugs.strategies.Strategy;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders rugs as a set of fixed-width tiles, for rugs exceeding the size of a
+ * single BufferedImage. Tiles are rendered in parallel and written to disk as
+ * soon as they are done, so at most one tile per thread is held in memory.
+ *
+ * The tiles are written to the folder dsname_featureID_stratid_tiles together
+ * with an index.csv listing file name, first frame and width of every tile.
+ * Tiles with more movers than the maximum height are aggregated vertically
+ * (see VerticalBinning).
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class TiledRugWriter {
+
+    /**
+     * The default number of frames per tile
+     */
+    public static final int DEFAULT_TILE_WIDTH = 4096;
+
+    private final int tileWidth;
+    private final int threads;
+
+    public TiledRugWriter() {
+        this(DEFAULT_TILE_WIDTH, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param tileWidth the number of frames per tile
+     * @param threads the number of tiles rendered in parallel
+     */
+    public TiledRugWriter(int tileWidth, int threads) {
+        this.tileWidth = tileWidth;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Renders the rug of one feature as tiles and writes them to disk
+     *
+     * @param da the array with ordered values
+     * @param min min value of the feature values for the color mapping
+     * @param max max value of the feature values for the color mapping
+     * @param decs the percentiles (bins) for the colors (limited to 10 currently)
+     * @param featureID the name of the displayed feature
+     * @param dsname the name of the displayed dataset
+     * @param stratid the name of the chosen strategy
+     * @return the folder containing the tiles and the index
+     * @throws IOException if a tile or the index could not be written
+     */
+    public File writeTiles(DataPoint[][] da, double min, double max, Double[] decs, String featureID, String dsname, String stratid) throws IOException {
+        return write(da.length, PNGWriter.createColorMapper(decs, min, max), featureID, dsname, stratid, new TileSource() {
+            @Override
+            public DataPoint[][] getOrdered(int from, int to) {
+                return Arrays.copyOfRange(da, from, to);
+            }
+        });
+    }
+
+    /**
+     * Orders and renders a dataset tile by tile, so only the DataPoints of the
+     * tiles in progress are in memory. Meant for datasets larger than the
+     * heap, like the MappedDataSet. Curve strategies should have their bounds
+     * set to the bounds of the dataset, so all tiles use the same grid.
+     *
+     * @param ds the dataset
+     * @param frames the number of frames of the dataset
+     * @param strategy the strategy ordering the frames of each tile
+     * @param featureID the name of the displayed feature
+     * @param stratid the name of the chosen strategy
+     * @return the folder containing the tiles and the index
+     * @throws IOException if a tile or the index could not be written
+     */
+    public File writeTiles(DataSet ds, int frames, Strategy strategy, String featureID, String stratid) throws IOException {
+        return write(frames, PNGWriter.createColorMapper(ds.getDeciles(featureID), ds.getMin(featureID), ds.getMax(featureID)), featureID, ds.getName(), stratid, new TileSource() {
+            @Override
+            public DataPoint[][] getOrdered(int from, int to) {
+                return strategy.getOrderedValues(ds.getFrames(from, to));
+            }
+        });
+    }
+
+    /**
+     * Provides the ordered frames of a tile
+     */
+    private interface TileSource {
+
+        DataPoint[][] getOrdered(int from, int to);
+    }
+
+    private File write(int frames, BinnedPercentileColorMapper bqcm, String featureID, String dsname, String stratid, TileSource source) throws IOException {
+        File folder = new File(dsname + "_" + featureID + "_" + stratid + "_tiles");
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create tile folder " + folder);
+        }
+
+        int tiles = (frames + tileWidth - 1) / tileWidth;
+        VerticalBinning binning = VerticalBinning.getDefault();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> written = new ArrayList<>(tiles);
+        try {
+            for (int t = 0; t < tiles; t++) {
+                final int from = t * tileWidth;
+                final int to = Math.min(frames, from + tileWidth);
+                final File tileFile = tileFile(folder, t);
+                written.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        IndexedRug tile = PNGWriter.renderRug(source.getOrdered(from, to), bqcm, featureID, binning);
+                        PNGWriter.getEncoder().write(tile.toImage(), tileFile);
+                        return tile.getHeight();
+                    }
+                }));
+            }
+
+            try (PrintWriter index = new PrintWriter(new File(folder, "index.csv"), "UTF-8")) {
+                index.println("tile,file,firstframe,frames,height");
+                for (int t = 0; t < tiles; t++) {
+                    int height = written.get(t).get();
+                    int from = t * tileWidth;
+                    index.println(t + "," + tileFile(folder, t).getName() + "," + from + "," + (Math.min(frames, from + tileWidth) - from) + "," + height);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing tiles", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Could not render tile", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.println("Wrote " + tiles + " tiles to " + folder);
+        return folder;
+    }
+
+    private static File tileFile(File folder, int tile) {
+        return new File(folder, String.format("tile_%06d.png", tile));
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.gui;
+
+import dbvis.motionrugs.color.BinnedPercentileColorMapper;
+import dbvis.motionrugs.data.DataPoint;
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Renders rugs with more movers than pixel rows. Runs of consecutive movers
+ * in the ordering are aggregated into one pixel, so the height of the rug is
+ * bounded by the target height instead of the number of movers. Each column
+ * is aggregated in a single pass over its ordered values.
+ *
+ * The maximum height of rugs drawn by the PNGWriter can be set with
+ * -Dmotionrugs.maxheight (default 4096) and the aggregation with
+ * -Dmotionrugs.binning=mean|max|majority (default majority).
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class VerticalBinning {
+
+    /**
+     * How the values of the movers falling into one pixel are combined
+     */
+    public enum Mode {
+        /**
+         * The bin of the mean value
+         */
+        MEAN,
+        /**
+         * The bin of the largest value, keeping outliers visible
+         */
+        MAX,
+        /**
+         * The most frequent bin
+         */
+        MAJORITY
+    }
+
+    /**
+     * The default maximum height of rugs
+     */
+    public static final int DEFAULT_MAX_HEIGHT = 4096;
+
+    private final Mode mode;
+    private final int height;
+
+    /**
+     * @param mode how the values of a pixel are combined
+     * @param height the number of pixel rows
+     */
+    public VerticalBinning(Mode mode, int height) {
+        if (height < 1) {
+            throw new IllegalArgumentException("Height must be positive, not " + height);
+        }
+        this.mode = mode;
+        this.height = height;
+    }
+
+    /**
+     * @return the binning configured by the system properties, for rugs
+     * exceeding the maximum height
+     */
+    public static VerticalBinning getDefault() {
+        int height = Integer.getInteger("motionrugs.maxheight", DEFAULT_MAX_HEIGHT);
+        Mode mode = Mode.valueOf(System.getProperty("motionrugs.binning", Mode.MAJORITY.name()).toUpperCase());
+        return new VerticalBinning(mode, height);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param movers the number of movers of the largest frame
+     * @return the height of the rug, the number of movers if they fit
+     */
+    public int heightFor(int movers) {
+        return Math.max(1, Math.min(height, movers));
+    }
+
+    /**
+     * Colors the frames [from, to) of the ordered values into the given rug,
+     * starting at its first column. The rug needs heightFor(movers) rows.
+     *
+     * @param da the array with ordered values
+     * @param from the first frame to draw
+     * @param to the frame after the last frame to draw
+     * @param movers the number of movers of the largest frame
+     * @param bqcm the color mapper
+     * @param featureID the name of the displayed feature
+     * @param target the rug to draw into
+     */
+    public void draw(DataPoint[][] da, int from, int to, int movers, BinnedPercentileColorMapper bqcm, String featureID, IndexedRug target) {
+        int outOfRange = 0;
+        for (int x = from; x < to; x++) {
+            DataPoint[] column = da[x];
+            outOfRange += drawColumn(y -> column[y].getValue(featureID), column.length, movers, bqcm, target, x - from);
+        }
+        logOutOfRange(outOfRange, featureID, bqcm);
+    }
+
+    /**
+     * Colors ordered feature values into the given rug. The rug needs
+     * heightFor(movers) rows.
+     *
+     * @param values the ordered values of the feature
+     * @param movers the number of movers of the largest frame
+     * @param bqcm the color mapper
+     * @param featureID the name of the feature, for error messages
+     * @param target the rug to draw into
+     */
+    public void draw(double[][] values, int movers, BinnedPercentileColorMapper bqcm, String featureID, IndexedRug target) {
+        int outOfRange = 0;
+        for (int x = 0; x < values.length; x++) {
+            double[] column = values[x];
+            outOfRange += drawColumn(y -> column[y], column.length, movers, bqcm, target, x);
+        }
+        logOutOfRange(outOfRange, featureID, bqcm);
+    }
+
+    /**
+     * Aggregates one ordered column in a single pass. Mover y falls into row
+     * y * rows / movers.
+     *
+     * @return the number of values outside the range of the mapper
+     */
+    private int drawColumn(IntToDoubleFunction column, int length, int movers, BinnedPercentileColorMapper bqcm, IndexedRug target, int x) {
+        byte[] pixels = target.getIndices();
+        int width = target.getWidth();
+        int rows = heightFor(movers);
+        double min = bqcm.getMin();
+        double max = bqcm.getMax();
+        int[] counts = new int[bqcm.getColors().length];
+        int outOfRange = 0;
+
+        int row = 0;
+        int count = 0;
+        double sum = 0;
+        double largest = Double.NEGATIVE_INFINITY;
+        for (int y = 0; y <= length; y++) {
+            int r = y < length ? (int) ((long) y * rows / movers) : -1;
+            if (r != row) {
+                //the run of the row is complete
+                if (count > 0) {
+                    int bin;
+                    switch (mode) {
+                        case MEAN:
+                            bin = bqcm.searchBin(sum / count);
+                            break;
+                        case MAX:
+                            bin = bqcm.searchBin(largest);
+                            break;
+                        default:
+                            bin = 0;
+                            for (int b = 1; b < counts.length; b++) {
+                                if (counts[b] > counts[bin]) {
+                                    bin = b;
+                                }
+                            }
+                            Arrays.fill(counts, 0);
+                    }
+                    pixels[row * width + x] = (byte) bin;
+                }
+                if (r < 0) {
+                    break;
+                }
+                row = r;
+                count = 0;
+                sum = 0;
+                largest = Double.NEGATIVE_INFINITY;
+            }
+            double value = column.applyAsDouble(y);
+            //NaN is out of range as well
+            if (!(value >= min && value <= max)) {
+                outOfRange++;
+                continue;
+            }
+            count++;
+            if (mode == Mode.MEAN) {
+                sum += value;
+            } else if (mode == Mode.MAX) {
+                largest = Math.max(largest, value);
+            } else {
+                counts[bqcm.searchBin(value)]++;
+            }
+        }
+        return outOfRange;
+    }
+
+    private static void logOutOfRange(int outOfRange, String featureID, BinnedPercentileColorMapper bqcm) {
+        if (outOfRange > 0) {
+            Logger.getLogger(PNGWriter.class.getName()).log(Level.SEVERE, "{0} values of {1} are outside the range from {2} to {3}",
+                    new Object[]{outOfRange, featureID, bqcm.getMin(), bqcm.getMax()});
+        }
+    }
+
+}
@@ -18,36 +18,160 @@ package dbvis.motionrugs.gui;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
 import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
 
 /**
- *  VisPanel contains and transforms the rugs for display in the GUI
- * 
+ *  VisPanel contains and transforms the rugs for display in the GUI. The rug
+ *  can be zoomed along the time axis with Ctrl + mouse wheel. Only the visible
+ *  part is drawn, taken from the level of a RugPyramid matching the zoom.
+ *  Growing rugs, e.g. of live data, are updated with setRug.
+ *
  * @author Juri Buchmüller, University of Konstanz <buchmueller@dbvis.inf.uni-konstanz.de>
  */
 public class VisPanel extends JPanel {
 
+    private static final double MIN_FRAMES_PER_PIXEL = 0.125;
+
     private BufferedImage bf;
+    private RugPyramid pyramid;
+    private int frames;
+    private double framesPerPixel = 1;
 
+    /**
+     * @param bf the rug to display, palette rugs are aggregated by mode,
+     * others by mean when zoomed out
+     */
     public VisPanel(BufferedImage bf) {
+        this(bf, RugPyramid.isIndexed(bf) ? RugPyramid.Aggregation.MODE : RugPyramid.Aggregation.MEAN);
+    }
+
+    /**
+     * @param bf the rug to display
+     * @param aggregation how frames are aggregated when zoomed out
+     */
+    public VisPanel(BufferedImage bf, RugPyramid.Aggregation aggregation) {
         super();
         this.bf = bf;
+        this.frames = bf.getWidth();
+        this.pyramid = new RugPyramid(bf, aggregation);
+        updatePreferredSize();
+
+        addMouseWheelListener(new MouseWheelListener() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if ((e.getModifiersEx() & InputEvent.CTRL_DOWN_MASK) != 0) {
+                    zoom(e.getWheelRotation() > 0 ? 2 : 0.5, e.getX());
+                } else if (getParent() != null) {
+                    //let the enclosing scroll pane scroll
+                    getParent().dispatchEvent(SwingUtilities.convertMouseEvent(VisPanel.this, e, getParent()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows a new state of a growing rug. If the view was scrolled to the end
+     * of the rug, it follows the new frames.
+     *
+     * @param bf the rug, the same image as before or a larger copy of it
+     * @param frames the number of frames in use, starting from the left
+     */
+    public void setRug(BufferedImage bf, int frames) {
+        boolean following = false;
+        if (getParent() instanceof JViewport) {
+            Rectangle view = ((JViewport) getParent()).getViewRect();
+            following = view.x + view.width >= getPreferredSize().width - 1;
+        }
+        this.bf = bf;
+        this.frames = frames;
+        pyramid.update(bf, frames);
+        updatePreferredSize();
+        revalidate();
+        if (following) {
+            JViewport viewport = (JViewport) getParent();
+            //resize right away, the layout only catches up later
+            setSize(getPreferredSize());
+            int x = Math.max(0, getPreferredSize().width - viewport.getExtentSize().width);
+            viewport.setViewPosition(new Point(x, viewport.getViewPosition().y));
+        }
+        repaint();
+    }
+
+    /**
+     * @return the number of frames covered by one horizontal pixel
+     */
+    public double getFramesPerPixel() {
+        return framesPerPixel;
+    }
+
+    /**
+     * Sets the zoom along the time axis
+     *
+     * @param framesPerPixel the number of frames covered by one horizontal
+     * pixel
+     */
+    public void setFramesPerPixel(double framesPerPixel) {
+        this.framesPerPixel = Math.max(MIN_FRAMES_PER_PIXEL, Math.min(Math.max(1, frames), framesPerPixel));
+        updatePreferredSize();
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Zooms around the given position, keeping the frame under it in place
+     */
+    private void zoom(double factor, int anchorX) {
+        double anchorFrame = anchorX * framesPerPixel;
+        setFramesPerPixel(framesPerPixel * factor);
+        if (getParent() instanceof JViewport) {
+            JViewport viewport = (JViewport) getParent();
+            Point view = viewport.getViewPosition();
+            int x = (int) (anchorFrame / framesPerPixel) - (anchorX - view.x);
+            viewport.setViewPosition(new Point(Math.max(0, x), view.y));
+        }
+    }
+
+    private void updatePreferredSize() {
+        this.setPreferredSize(new Dimension((int) Math.ceil(frames / framesPerPixel), bf.getHeight()));
     }
 
     @Override
     public void paintComponent(Graphics g) {
-        this.setSize(bf.getWidth(), bf.getHeight());
-        this.setPreferredSize(new Dimension(bf.getWidth(), this.getHeight()));
+        super.paintComponent(g);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
 
-        Graphics2D g2 = (Graphics2D) g;
-        AffineTransform af = new AffineTransform();
-        af.scale(1, (double) this.getHeight() / bf.getHeight());
-        AffineTransformOp afo = new AffineTransformOp(af, AffineTransformOp.TYPE_BICUBIC);
+        int level = pyramid.levelFor(framesPerPixel);
+        BufferedImage img = pyramid.getLevel(level);
+        int columns = pyramid.getColumns(level);
+        double columnsPerPixel = framesPerPixel / (1 << level);
 
-        g2.drawImage(bf, afo, 0, 0);
+        //only the visible columns of the level are scaled to the panel
+        int dx1 = clip.x;
+        int dx2 = Math.min(clip.x + clip.width, (int) Math.ceil(columns / columnsPerPixel));
+        int sx1 = (int) Math.floor(dx1 * columnsPerPixel);
+        int sx2 = Math.min(columns, (int) Math.ceil(dx2 * columnsPerPixel));
+        if (dx2 <= dx1 || sx2 <= sx1) {
+            return;
+        }
+        //align the drawn area with the column boundaries
+        dx1 = (int) Math.round(sx1 / columnsPerPixel);
+        dx2 = (int) Math.round(sx2 / columnsPerPixel);
+
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(img, dx1, 0, dx2, this.getHeight(), sx1, 0, sx2, img.getHeight(), null);
     }
 
 }
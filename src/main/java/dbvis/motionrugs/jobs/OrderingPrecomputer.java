@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.jobs;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.DataSet;
+import dbvis.motionrugs.data.MappedDataSet;
+import dbvis.motionrugs.strategies.MultiStrategyRunner;
+import dbvis.motionrugs.strategies.Strategy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Orders datasets speculatively in the background, so rugs requested later
+ * are answered from the orderings stored in the datasets. Jobs run one at a
+ * time by priority, on daemon threads of minimum priority; the parallel
+ * streams of the strategies run in the pool of these threads as well. The
+ * queued jobs of a dataset are run together by a MultiStrategyRunner, which
+ * reads the positions of each frame once for all strategies.
+ *
+ * Requested orderings preempt the background: a queued job is taken over by
+ * the requesting thread, a running one is waited for instead of being
+ * computed twice, and no further job starts until all requests are answered.
+ * Jobs are skipped if their result would take more than half of the free
+ * heap. Datasets kept in mapped files are not ordered in the background.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class OrderingPrecomputer {
+
+    /**
+     * Priority of the orderings of the selected dataset
+     */
+    public static final int PRIORITY_SELECTED = 1;
+    /**
+     * Priority of the orderings of all other datasets
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+
+    //bytes per point of an ordering: the reference and a share of the frame
+    private static final long BYTES_PER_POINT = 8;
+    //bytes per point of a permutation of a MultiStrategyRunner
+    private static final long PERMUTATION_BYTES_PER_POINT = 4;
+
+    private final ForkJoinPool pool;
+    private final Thread dispatcher;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Object idle = new Object();
+
+    public OrderingPrecomputer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the number of threads ordering in the background
+     */
+    public OrderingPrecomputer(int threads) {
+        this.pool = new ForkJoinPool(Math.max(1, threads), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ordering-precompute-" + thread.getPoolIndex());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.dispatcher = new Thread(this::dispatch, "ordering-precompute");
+        dispatcher.setPriority(Thread.MIN_PRIORITY);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * An ordering of a dataset with a strategy. Whoever claims the job runs
+     * it, everybody else waits for its result.
+     */
+    private final class Job implements Comparable<Job> {
+
+        final String key;
+        final DataSet dataset;
+        final Strategy strategy;
+        final long sequence;
+        volatile int priority;
+        final AtomicBoolean claimed = new AtomicBoolean();
+        //null if the job was skipped or failed
+        final CompletableFuture<DataPoint[][]> result = new CompletableFuture<>();
+
+        Job(String key, DataSet dataset, Strategy strategy, int priority) {
+            this.key = key;
+            this.dataset = dataset;
+            this.strategy = strategy;
+            this.priority = priority;
+            this.sequence = OrderingPrecomputer.this.sequence.getAndIncrement();
+        }
+
+        void run() {
+            runAll(Collections.singletonList(this));
+        }
+
+        void complete(DataPoint[][] ordered) {
+            jobs.remove(key, this);
+            result.complete(ordered);
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Runs claimed jobs of the same dataset, the strategies reordering points
+     * in one pass
+     */
+    private static void runAll(List<Job> batch) {
+        DataSet dataset = batch.get(0).dataset;
+        List<Strategy> fused = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (Job job : batch) {
+            if (MultiStrategyRunner.isPermutation(job.strategy)) {
+                fused.add(job.strategy);
+            }
+            names.add(job.strategy.getName());
+        }
+        try {
+            DataPoint[][] base = dataset.getBaseData();
+            Map<String, int[][]> perms = fused.isEmpty() ? Collections.<String, int[][]>emptyMap() : new MultiStrategyRunner(fused).run(base);
+            for (Job job : batch) {
+                int[][] perm = perms.get(job.strategy.getName());
+                if (perm == null) {
+                    //aggregating strategies are not kept, they do not reorder the points
+                    job.complete(job.strategy.getOrderedValues(base));
+                    continue;
+                }
+                dataset.addPermutation(perm, job.strategy.getName());
+                job.complete(MultiStrategyRunner.apply(base, perm));
+            }
+        } catch (RuntimeException | OutOfMemoryError ex) {
+            Logger.getLogger(OrderingPrecomputer.class.getName()).log(Level.SEVERE, "Could not order " + dataset.getName() + " with " + names, ex);
+        } finally {
+            //jobs not done are left to the requests
+            for (Job job : batch) {
+                job.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Queues the orderings of a dataset with all strategies that reorder its
+     * points and are neither stored in the dataset nor queued yet
+     *
+     * @param dataset the dataset
+     * @param strategies the strategies
+     * @param priority the priority, higher first
+     */
+    public void precompute(DataSet dataset, List<Strategy> strategies, int priority) {
+        if (dataset instanceof MappedDataSet) {
+            return;
+        }
+        for (Strategy strategy : strategies) {
+            if (!MultiStrategyRunner.isPermutation(strategy) || dataset.getPermutation(strategy.getName()) != null) {
+                continue;
+            }
+            String key = key(dataset, strategy);
+            Job job = new Job(key, dataset, strategy, priority);
+            if (jobs.putIfAbsent(key, job) == null) {
+                queue.add(job);
+            }
+        }
+    }
+
+    /**
+     * Changes the priority of the queued orderings of a dataset, e.g. when it
+     * is selected
+     *
+     * @param dataset the dataset
+     * @param priority the new priority, higher first
+     */
+    public void prioritize(DataSet dataset, int priority) {
+        for (Job job : jobs.values()) {
+            if (job.dataset == dataset && job.priority != priority && queue.remove(job)) {
+                job.priority = priority;
+                queue.add(job);
+            }
+        }
+    }
+
+    /**
+     * Returns the ordering of a dataset with a strategy: stored in the
+     * dataset, computed by a running job or computed now on the calling
+     * thread. The permutation of the ordering is stored in the dataset.
+     *
+     * @param dataset the dataset
+     * @param strategy the strategy
+     * @return the ordered frames
+     */
+    public DataPoint[][] get(DataSet dataset, Strategy strategy) {
+        DataPoint[][] ordered = dataset.getData(strategy.getName());
+        if (ordered != null) {
+            return ordered;
+        }
+        requests.incrementAndGet();
+        try {
+            String key = key(dataset, strategy);
+            Job job = jobs.computeIfAbsent(key, k -> new Job(k, dataset, strategy, Integer.MAX_VALUE));
+            if (job.claimed.compareAndSet(false, true)) {
+                queue.remove(job);
+                System.out.println("Ordering " + dataset.getName() + " with " + strategy.getName() + " on request.");
+                job.run();
+            }
+            ordered = job.result.get();
+            if (ordered == null) {
+                //skipped or failed in the background, errors show up here
+                ordered = strategy.getOrderedValues(dataset.getBaseData());
+                if (MultiStrategyRunner.isPermutation(strategy)) {
+                    dataset.addOrderedData(ordered, strategy.getName());
+                }
+            }
+            return ordered;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the ordering", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Could not order " + dataset.getName(), ex.getCause());
+        } finally {
+            if (requests.decrementAndGet() == 0) {
+                synchronized (idle) {
+                    idle.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of queued and running jobs
+     */
+    public int getPending() {
+        return jobs.size();
+    }
+
+    /**
+     * Stops ordering in the background. Running jobs are abandoned.
+     */
+    public void shutdown() {
+        dispatcher.interrupt();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs the queued jobs one after the other while there are no requests
+     */
+    private void dispatch() {
+        try {
+            while (true) {
+                synchronized (idle) {
+                    while (requests.get() > 0) {
+                        idle.wait();
+                    }
+                }
+                Job job = queue.take();
+                if (!job.claimed.compareAndSet(false, true)) {
+                    continue;
+                }
+                //the other queued jobs of the dataset are run along
+                List<Job> batch = new ArrayList<>();
+                batch.add(job);
+                for (Job other : jobs.values()) {
+                    if (other.dataset == job.dataset && other != job && queue.remove(other) && other.claimed.compareAndSet(false, true)) {
+                        batch.add(other);
+                    }
+                }
+                List<String> names = new ArrayList<>();
+                for (Job claimed : batch) {
+                    names.add(claimed.strategy.getName());
+                }
+                if (!fits(job.dataset, batch.size())) {
+                    System.out.println("Not enough memory to order " + job.dataset.getName() + " with " + names + " in the background.");
+                    for (Job claimed : batch) {
+                        claimed.complete(null);
+                    }
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                try {
+                    pool.submit(() -> runAll(batch)).get();
+                    System.out.println("Ordered " + job.dataset.getName() + " with " + names + " in the background in " + (System.currentTimeMillis() - start) + " ms.");
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(OrderingPrecomputer.class.getName()).log(Level.SEVERE, null, ex);
+                    for (Job claimed : batch) {
+                        claimed.complete(null);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            //shut down
+        }
+    }
+
+    /**
+     * @return if the given number of orderings of the dataset, along with
+     * their permutations, take at most half of the free heap
+     */
+    private static boolean fits(DataSet dataset, int orderings) {
+        DataPoint[][] frames = dataset.getBaseData();
+        long points = 0;
+        for (DataPoint[] frame : frames) {
+            points += frame.length;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return points * (BYTES_PER_POINT + PERMUTATION_BYTES_PER_POINT) * orderings < free / 2;
+    }
+
+    private static String key(DataSet dataset, Strategy strategy) {
+        return dataset.getName() + "\u0000" + strategy.getName();
+    }
+
+}
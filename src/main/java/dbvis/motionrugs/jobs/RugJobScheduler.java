@@ -0,0 +1,418 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.jobs;
+
+import dbvis.motionrugs.color.BinnedPercentileColorMapper;
+import dbvis.motionrugs.data.CSVDataLoader;
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.DataSet;
+import dbvis.motionrugs.data.FrameAggregator;
+import dbvis.motionrugs.data.FrameSelection;
+import dbvis.motionrugs.data.MappedDataSet;
+import dbvis.motionrugs.data.SessionData;
+import dbvis.motionrugs.gui.IndexedRug;
+import dbvis.motionrugs.gui.PNGWriter;
+import dbvis.motionrugs.gui.VerticalBinning;
+import dbvis.motionrugs.strategies.AggregatingStrategy;
+import dbvis.motionrugs.strategies.MultiStrategyRunner;
+import dbvis.motionrugs.strategies.Strategies;
+import dbvis.motionrugs.strategies.Strategy;
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates many rugs at once as a graph of stages: loading a dataset, the
+ * color mapping of a feature (its statistics), the ordering of a dataset
+ * with a strategy, the rug of a feature in that ordering and writing the rug
+ * in a colormap. Every stage is run once per batch and shared by all rugs
+ * depending on it; colormaps only recolor the rendered rug.
+ *
+ * Ordering and rendering run on a pool of CPU threads, the parallel streams
+ * of the strategies included. Loading, reading feature columns and writing
+ * run on a separate, smaller pool for I/O. Orderings and rendered rugs are
+ * the large intermediate results, at most a few of each are held at a time:
+ * requests are grouped by dataset, strategy and feature, and new stages wait
+ * for a permit until older ones have been consumed. Orderings already stored
+ * in a dataset are used, new ones are not stored. The missing orderings of a
+ * dataset are computed in one pass by a MultiStrategyRunner, as permutations
+ * of 4 bytes per point kept until the next dataset, and applied to the frames
+ * one ordering at a time.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class RugJobScheduler {
+
+    /**
+     * Name of the colormap of the GUI
+     */
+    public static final String DEFAULT_COLORMAP = "default";
+
+    /**
+     * A rug to create
+     */
+    public static class RugRequest {
+
+        private final DataSet dataset;
+        private final Strategy strategy;
+        private final String feature;
+        private final String colormap;
+        private final Color[] palette;
+
+        /**
+         * A rug in the colors of the GUI
+         *
+         * @param dataset the dataset
+         * @param strategy the strategy ordering the dataset
+         * @param feature the feature to draw
+         */
+        public RugRequest(DataSet dataset, Strategy strategy, String feature) {
+            this(dataset, strategy, feature, DEFAULT_COLORMAP, PNGWriter.getDefaultColors());
+        }
+
+        /**
+         * @param dataset the dataset
+         * @param strategy the strategy ordering the dataset
+         * @param feature the feature to draw
+         * @param colormap the name of the colormap, part of the file name
+         * unless it is the default
+         * @param palette the colors of the bins, as many as the default colors
+         */
+        public RugRequest(DataSet dataset, Strategy strategy, String feature, String colormap, Color[] palette) {
+            this.dataset = dataset;
+            this.strategy = strategy;
+            this.feature = feature;
+            this.colormap = colormap;
+            this.palette = palette;
+        }
+
+        /**
+         * @return the file the rug is written to, named like the rugs of the
+         * GUI
+         */
+        public File getFile() {
+            String suffix = DEFAULT_COLORMAP.equals(colormap) ? "" : "_" + colormap;
+            return new File(dataset.getName() + "_" + feature + "_" + strategy.getName() + suffix + ".png");
+        }
+
+        String orderingKey() {
+            return dataset.getName() + "\u0000" + strategy.getName();
+        }
+
+        String rugKey() {
+            return orderingKey() + "\u0000" + feature;
+        }
+    }
+
+    /**
+     * A result held until all stages depending on it are done. The submitting
+     * thread holds it while it may still add dependent stages.
+     */
+    private static final class Stage<T> {
+
+        final String key;
+        final Semaphore permits;
+        final AtomicInteger holds = new AtomicInteger(1);
+        volatile CompletableFuture<T> result;
+
+        Stage(String key, Semaphore permits) {
+            this.key = key;
+            this.permits = permits;
+        }
+
+        void retain() {
+            holds.incrementAndGet();
+        }
+
+        void release() {
+            if (holds.decrementAndGet() == 0) {
+                result = null;
+                permits.release();
+            }
+        }
+    }
+
+    private final ForkJoinPool cpu;
+    private final ExecutorService io;
+    private final Semaphore orderings;
+    private final Semaphore rugs;
+
+    /**
+     * A scheduler with a CPU thread per core, two I/O threads and up to two
+     * orderings and two rugs per CPU thread in memory
+     */
+    public RugJobScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), 2, 2, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param cpuThreads the number of threads ordering and rendering
+     * @param ioThreads the number of threads reading and writing
+     * @param maxOrderings the number of orderings held at a time
+     * @param maxRugs the number of rendered rugs held at a time
+     */
+    public RugJobScheduler(int cpuThreads, int ioThreads, int maxOrderings, int maxRugs) {
+        this.cpu = new ForkJoinPool(Math.max(1, cpuThreads));
+        AtomicInteger count = new AtomicInteger();
+        this.io = Executors.newFixedThreadPool(Math.max(1, ioThreads), r -> {
+            Thread thread = new Thread(r, "rug-io-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.orderings = new Semaphore(Math.max(1, maxOrderings));
+        this.rugs = new Semaphore(Math.max(1, maxRugs));
+    }
+
+    /**
+     * Creates the rugs and waits until all are written. Rugs that fail are
+     * logged and left out.
+     *
+     * @param requests the rugs
+     * @return the written files in the order of the requests, null for
+     * failed rugs
+     * @throws InterruptedException if interrupted while waiting for permits
+     * or rugs
+     */
+    public List<File> run(List<RugRequest> requests) throws InterruptedException {
+        HashMap<String, CompletableFuture<DataPoint[][]>> loads = new HashMap<>();
+        HashMap<String, CompletableFuture<BinnedPercentileColorMapper>> stats = new HashMap<>();
+        HashMap<String, CompletableFuture<File>> writes = new HashMap<>();
+        HashMap<String, CompletableFuture<Map<String, int[][]>>> perms = new HashMap<>();
+        VerticalBinning binning = VerticalBinning.getDefault();
+
+        //the strategies of each dataset, ordered together
+        HashMap<String, LinkedHashMap<String, Strategy>> strategies = new HashMap<>();
+        for (RugRequest request : requests) {
+            strategies.computeIfAbsent(request.dataset.getName(), k -> new LinkedHashMap<>()).putIfAbsent(request.strategy.getName(), request.strategy);
+        }
+
+        //grouped, so orderings and rugs are consumed before the next ones are needed
+        Integer[] order = new Integer[requests.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> requests.get(i).orderingKey()).thenComparing(i -> requests.get(i).feature));
+
+        List<CompletableFuture<File>> files = new ArrayList<>(requests.size());
+        for (int i = 0; i < order.length; i++) {
+            files.add(null);
+        }
+        Stage<DataPoint[][]> ordering = null;
+        Stage<IndexedRug> rug = null;
+        try {
+            for (int i : order) {
+                RugRequest request = requests.get(i);
+                DataSet ds = request.dataset;
+                CompletableFuture<DataPoint[][]> load = loads.computeIfAbsent(ds.getName(), k -> CompletableFuture.supplyAsync(ds::getBaseData, io));
+
+                if (ordering == null || !ordering.key.equals(request.orderingKey())) {
+                    if (rug != null) {
+                        rug.release();
+                        rug = null;
+                    }
+                    if (ordering != null) {
+                        ordering.release();
+                        ordering = null;
+                    }
+                    //the requests are grouped by dataset, so the permutations of the last one are done
+                    if (!perms.containsKey(ds.getName())) {
+                        perms.clear();
+                    }
+                    CompletableFuture<Map<String, int[][]>> perm = perms.computeIfAbsent(ds.getName(),
+                            k -> load.thenApplyAsync(base -> permutations(ds, strategies.get(k).values(), base), cpu));
+                    orderings.acquire();
+                    ordering = order(request, load, perm);
+                }
+
+                if (rug == null || !rug.key.equals(request.rugKey())) {
+                    if (rug != null) {
+                        rug.release();
+                        rug = null;
+                    }
+                    //the columns are read with the statistics, on the I/O threads
+                    CompletableFuture<BinnedPercentileColorMapper> mapper = stats.computeIfAbsent(ds.getName() + "\u0000" + request.feature,
+                            k -> load.thenApplyAsync(base -> colorMapper(ds, base, request.feature), io));
+                    rugs.acquire();
+                    rug = render(request, ordering, mapper, binning);
+                }
+
+                final Stage<IndexedRug> source = rug;
+                files.set(i, writes.computeIfAbsent(request.getFile().getPath(), k -> {
+                    source.retain();
+                    CompletableFuture<File> written = source.result.thenApplyAsync(indexed -> write(indexed, request), io);
+                    written.whenComplete((file, ex) -> source.release());
+                    return written;
+                }));
+            }
+        } finally {
+            if (rug != null) {
+                rug.release();
+            }
+            if (ordering != null) {
+                ordering.release();
+            }
+        }
+
+        List<File> written = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                written.add(files.get(i).get());
+            } catch (ExecutionException ex) {
+                Logger.getLogger(RugJobScheduler.class.getName()).log(Level.SEVERE, "Could not create " + requests.get(i).getFile(), ex.getCause());
+                written.add(null);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Stops the threads of the scheduler
+     */
+    public void shutdown() {
+        cpu.shutdownNow();
+        io.shutdownNow();
+    }
+
+    private Stage<DataPoint[][]> order(RugRequest request, CompletableFuture<DataPoint[][]> load, CompletableFuture<Map<String, int[][]>> perms) {
+        Stage<DataPoint[][]> stage = new Stage<>(request.orderingKey(), orderings);
+        stage.result = load.thenCombineAsync(perms, (base, perm) -> {
+            int[][] p = request.dataset.getPermutation(request.strategy.getName());
+            if (p == null) {
+                p = perm.get(request.strategy.getName());
+            }
+            return p != null ? MultiStrategyRunner.apply(base, p) : request.strategy.getOrderedValues(base);
+        }, cpu);
+        return stage;
+    }
+
+    /**
+     * Orders a dataset with the strategies not stored in it that reorder its
+     * points
+     */
+    private static Map<String, int[][]> permutations(DataSet ds, Collection<Strategy> strategies, DataPoint[][] base) {
+        List<Strategy> fused = new ArrayList<>();
+        for (Strategy strategy : strategies) {
+            if (MultiStrategyRunner.isPermutation(strategy) && ds.getPermutation(strategy.getName()) == null) {
+                fused.add(strategy);
+            }
+        }
+        return new MultiStrategyRunner(fused).run(base);
+    }
+
+    private Stage<IndexedRug> render(RugRequest request, Stage<DataPoint[][]> ordering, CompletableFuture<BinnedPercentileColorMapper> mapper, VerticalBinning binning) {
+        Stage<IndexedRug> stage = new Stage<>(request.rugKey(), rugs);
+        ordering.retain();
+        stage.result = ordering.result.thenCombineAsync(mapper, (ordered, bqcm) -> {
+            if ((long) ordered.length * binning.heightFor(FrameSelection.maxMovers(ordered)) > PNGWriter.MAX_PIXELS) {
+                throw new IllegalArgumentException("The rug exceeds " + PNGWriter.MAX_PIXELS + " pixels, use the TiledRugWriter");
+            }
+            return PNGWriter.renderRug(ordered, bqcm, request.feature, binning);
+        }, cpu);
+        stage.result.whenComplete((indexed, ex) -> ordering.release());
+        return stage;
+    }
+
+    private static BinnedPercentileColorMapper colorMapper(DataSet ds, DataPoint[][] base, String feature) {
+        //touching a value reads the column of lazily loaded datasets
+        if (base.length > 0 && base[0].length > 0) {
+            base[0][0].getValue(feature);
+        }
+        return PNGWriter.createColorMapper(ds.getDeciles(feature), ds.getMin(feature), ds.getMax(feature));
+    }
+
+    private static File write(IndexedRug indexed, RugRequest request) {
+        File file = request.getFile();
+        try {
+            PNGWriter.getEncoder().write(indexed.toImage(request.palette), file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return file;
+    }
+
+    /**
+     * Writes the rugs of all features of all datasets with all strategies of
+     * the GUI. Datasets kept in mapped files are skipped, they are written as
+     * tiles from the GUI. With --overview width, datasets of more frames are
+     * written as overview rugs of at most that many columns, averaging
+     * neighbouring frames before ordering (see AggregatingStrategy).
+     *
+     * @param args optionally --overview width, then the data directory, by
+     * default ./data
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int overview = 0;
+        if (args.length > 1 && args[0].equals("--overview")) {
+            overview = Integer.parseInt(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        CSVDataLoader.checkAndLoadCSVDataSets(args);
+
+        List<Strategy> strategies = Strategies.createAll();
+
+        SessionData data = SessionData.getInstance();
+        List<RugRequest> requests = new ArrayList<>();
+        for (String name : data.getDatasetNames()) {
+            DataSet ds = data.getDataset(name);
+            if (ds instanceof MappedDataSet) {
+                System.out.println("Skipping " + name + ", it is kept in mapped files.");
+                continue;
+            }
+            List<String> features = new ArrayList<>();
+            for (String feature : ds.getFeatureList()) {
+                if (!(feature.equals("frame") || feature.equals("id") || feature.equals("x") || feature.equals("y"))) {
+                    features.add(feature);
+                }
+            }
+            boolean aggregate = overview > 0 && ds.getBaseData().length > overview;
+            for (Strategy strategy : strategies) {
+                //only the rendered features are averaged
+                Strategy ordering = aggregate ? AggregatingStrategy.forWidth(strategy, FrameAggregator.Mode.MEAN, overview, features) : strategy;
+                for (String feature : features) {
+                    requests.add(new RugRequest(ds, ordering, feature));
+                }
+            }
+        }
+
+        RugJobScheduler scheduler = new RugJobScheduler();
+        long start = System.currentTimeMillis();
+        List<File> files = scheduler.run(requests);
+        scheduler.shutdown();
+        long done = files.stream().filter(f -> f != null).count();
+        System.out.println("Wrote " + done + " of " + requests.size() + " rugs in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameAggregator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Orders aggregated frames with another strategy, for overview rugs of long
+ * recordings. The frames are reduced by a fixed factor or, with a target
+ * width, by the smallest factor fitting them into that many columns, so the
+ * wrapped strategy only orders one frame per column. The aggregated frames
+ * only carry the given features.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class AggregatingStrategy implements Strategy {
+
+    private final Strategy strategy;
+    private final FrameAggregator.Mode mode;
+    private final int factor;
+    private final int targetWidth;
+    private final List<String> features;
+
+    /**
+     * Aggregates a fixed number of frames per column
+     *
+     * @param strategy the strategy ordering the aggregated frames
+     * @param mode how frames are aggregated
+     * @param factor the number of frames per column
+     * @param features the features kept in the aggregated frames
+     */
+    public AggregatingStrategy(Strategy strategy, FrameAggregator.Mode mode, int factor, Collection<String> features) {
+        this(strategy, mode, factor, 0, features);
+    }
+
+    private AggregatingStrategy(Strategy strategy, FrameAggregator.Mode mode, int factor, int targetWidth, Collection<String> features) {
+        this.strategy = strategy;
+        this.mode = mode;
+        this.factor = factor;
+        this.targetWidth = targetWidth;
+        this.features = new ArrayList<>(features);
+    }
+
+    /**
+     * Aggregates as many frames per column as needed to fit the target width
+     *
+     * @param strategy the strategy ordering the aggregated frames
+     * @param mode how frames are aggregated
+     * @param targetWidth the largest number of columns
+     * @param features the features kept in the aggregated frames
+     * @return the strategy
+     */
+    public static AggregatingStrategy forWidth(Strategy strategy, FrameAggregator.Mode mode, int targetWidth, Collection<String> features) {
+        return new AggregatingStrategy(strategy, mode, 1, Math.max(1, targetWidth), features);
+    }
+
+    @Override
+    public String getName() {
+        if (targetWidth > 0) {
+            return strategy.getName() + " (" + mode + " to " + targetWidth + ")";
+        }
+        return strategy.getName() + " (" + mode + " 1:" + factor + ")";
+    }
+
+    /**
+     * Returns the aggregated frames in the ordering of the wrapped strategy
+     *
+     * @param unsorted dataset
+     * @return the sorted aggregated frames
+     */
+    @Override
+    public DataPoint[][] getOrderedValues(DataPoint[][] unsorted) {
+        FrameAggregator aggregator = targetWidth > 0
+                ? FrameAggregator.forWidth(mode, unsorted.length, targetWidth, features)
+                : new FrameAggregator(mode, factor, features);
+        return strategy.getOrderedValues(aggregator.aggregate(unsorted));
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import dbvis.motionrugs.data.DataPoint;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Batch kernels computing grid cells and space-filling curve keys for all
+ * positions of a frame at once, working on primitive coordinate columns.
+ *
+ * The batch kernels process one bit level of all points per pass, which keeps
+ * the inner loops branch-free so the JIT can compile them to SIMD instructions
+ * (superword). If superword optimization is switched off in the running VM, the
+ * per-point scalar kernels are chosen at startup instead.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public final class CurveKernels {
+
+    /**
+     * The maximum Hilbert order, keeping keys positive in a long
+     */
+    public static final int MAX_HILBERT_ORDER = 31;
+
+    private static final boolean BATCH = useBatchKernels();
+
+    private CurveKernels() {
+    }
+
+    private static boolean useBatchKernels() {
+        String forced = System.getProperty("motionrugs.kernels");
+        if (forced != null) {
+            return !forced.equalsIgnoreCase("scalar");
+        }
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return hotspot == null || Boolean.parseBoolean(hotspot.getVMOption("UseSuperWord").getValue());
+        } catch (RuntimeException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the batch kernels are used, false for the scalar
+     * fallback
+     */
+    public static boolean isBatchEnabled() {
+        return BATCH;
+    }
+
+    /**
+     * Copies the positions of a frame into primitive columns
+     *
+     * @param frame the frame
+     * @param xs the array the x coordinates are written to
+     * @param ys the array the y coordinates are written to
+     */
+    public static void extract(DataPoint[] frame, double[] xs, double[] ys) {
+        for (int i = 0; i < frame.length; i++) {
+            xs[i] = frame[i].getX();
+            ys[i] = frame[i].getY();
+        }
+    }
+
+    /**
+     * Copies the positions of part of a frame into primitive columns
+     *
+     * @param frame the frame
+     * @param from the first position copied
+     * @param to the end of the copied positions, exclusive
+     * @param xs the array the x coordinates are written to, from index 0
+     * @param ys the array the y coordinates are written to, from index 0
+     */
+    public static void extract(DataPoint[] frame, int from, int to, double[] xs, double[] ys) {
+        for (int i = from; i < to; i++) {
+            xs[i - from] = frame[i].getX();
+            ys[i - from] = frame[i].getY();
+        }
+    }
+
+    /**
+     * Normalizes coordinates to grid cells, clamping to [0, maxCell]
+     *
+     * @param v the coordinates
+     * @param n the number of coordinates
+     * @param min the coordinate mapped to cell 0
+     * @param scale cells per coordinate unit
+     * @param maxCell the highest cell index
+     * @param cells the array the cells are written to, as unsigned ints
+     */
+    public static void normalize(double[] v, int n, double min, double scale, double maxCell, int[] cells) {
+        for (int i = 0; i < n; i++) {
+            cells[i] = (int) (long) Math.min(Math.max((v[i] - min) * scale, 0.0), maxCell);
+        }
+    }
+
+    /**
+     * Computes the Morton keys of grid cells. The keys have to be compared
+     * unsigned.
+     *
+     * @param cellX cell columns
+     * @param cellY cell rows
+     * @param n the number of cells
+     * @param keys the array the keys are written to
+     */
+    public static void mortonKeys(int[] cellX, int[] cellY, int n, long[] keys) {
+        MortonEncoder.encode(cellX, cellY, keys, n);
+    }
+
+    /**
+     * Computes the Hilbert keys of grid cells
+     *
+     * @param cellX cell columns, less than 2^order
+     * @param cellY cell rows, less than 2^order
+     * @param n the number of cells
+     * @param order the order of the curve, 1 to 31
+     * @param keys the array the keys are written to
+     * @param scratchX scratch array of at least n elements
+     * @param scratchY scratch array of at least n elements
+     */
+    public static void hilbertKeys(int[] cellX, int[] cellY, int n, int order, long[] keys, int[] scratchX, int[] scratchY) {
+        if (!BATCH) {
+            for (int i = 0; i < n; i++) {
+                keys[i] = hilbertKey(cellX[i], cellY[i], order);
+            }
+            return;
+        }
+        System.arraycopy(cellX, 0, scratchX, 0, n);
+        System.arraycopy(cellY, 0, scratchY, 0, n);
+        for (int i = 0; i < n; i++) {
+            keys[i] = 0;
+        }
+        for (int b = order - 1; b >= 0; b--) {
+            for (int i = 0; i < n; i++) {
+                int x = scratchX[i];
+                int y = scratchY[i];
+                int rx = (x >>> b) & 1;
+                int ry = (y >>> b) & 1;
+                keys[i] |= ((long) ((3 * rx) ^ ry)) << (2 * b);
+                //rotate the quadrant: flip if rx==1 and ry==0, then swap if ry==0
+                int flip = -(rx & (ry ^ 1));
+                x ^= flip;
+                y ^= flip;
+                int swap = (x ^ y) & -(ry ^ 1);
+                scratchX[i] = x ^ swap;
+                scratchY[i] = y ^ swap;
+            }
+        }
+    }
+
+    /**
+     * Computes the Hilbert key of a single grid cell
+     *
+     * @param x cell column, less than 2^order
+     * @param y cell row, less than 2^order
+     * @param order the order of the curve, 1 to 31
+     * @return the position of the cell on the curve
+     */
+    public static long hilbertKey(int x, int y, int order) {
+        long key = 0;
+        for (int b = order - 1; b >= 0; b--) {
+            int rx = (x >>> b) & 1;
+            int ry = (y >>> b) & 1;
+            key |= ((long) ((3 * rx) ^ ry)) << (2 * b);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = ~x;
+                    y = ~y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return key;
+    }
+
+}
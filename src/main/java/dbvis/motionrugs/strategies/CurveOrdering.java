@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameSelection;
+import java.util.stream.IntStream;
+
+/**
+ * Orders frames by curve keys using all cores. Datasets with many frames are
+ * ordered frame by frame in parallel. Datasets with huge frames, like traffic
+ * simulations with millions of movers in a few thousand frames, are ordered
+ * one frame after the other, with the keys of a frame computed in parallel
+ * chunks and sorted with a parallel radix sort. This keeps the buffers of only
+ * one frame in memory. Both give the same ordering as a stable sort of each
+ * frame by its keys.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public final class CurveOrdering {
+
+    /**
+     * Frames with at least this many movers are always ordered with the
+     * parallel sort
+     */
+    public static final int INTRA_FRAME_MIN_MOVERS = 1 << 16;
+
+    /**
+     * Frames with at least this many movers are ordered with the parallel
+     * sort if there are fewer frames than threads
+     */
+    public static final int PARALLEL_SORT_MIN_MOVERS = 1 << 12;
+
+    /**
+     * Computes the curve keys of positions
+     */
+    interface KeyFunction {
+
+        /**
+         * @param xs x coordinates
+         * @param ys y coordinates
+         * @param n the number of positions
+         * @param scratch buffers of the calling thread, except xs and ys
+         * @param keys the array the keys are written to
+         * @param offset the index of the first key in keys
+         */
+        void keys(double[] xs, double[] ys, int n, Scratch scratch, long[] keys, int offset);
+    }
+
+    /**
+     * Buffers of the key computation and the sort, kept in the
+     * OrderingContext of a thread and grown as needed
+     */
+    static final class Scratch {
+
+        double[] xs = new double[0];
+        double[] ys = new double[0];
+        int[] cellX = new int[0];
+        int[] cellY = new int[0];
+        int[] scratchX = new int[0];
+        int[] scratchY = new int[0];
+        long[] keys = new long[0];
+        long[] sortKeys = new long[0];
+        int[] order = new int[0];
+        int[] sortOrder = new int[0];
+        int[] ranks = new int[0];
+        int[] sortRanks = new int[0];
+        final int[] counts = new int[(1 << GridCurveStrategy.RADIX_BITS) + 1];
+        final int[] byteCounts = new int[KeySort.BUCKETS];
+        //buffers of huge frames sorted in parallel
+        long[] frameKeys = new long[0];
+        long[] frameSortKeys = new long[0];
+        int[] frameSortOrder = new int[0];
+
+        void ensure(int n) {
+            if (xs.length < n) {
+                xs = new double[n];
+                ys = new double[n];
+                cellX = new int[n];
+                cellY = new int[n];
+                scratchX = new int[n];
+                scratchY = new int[n];
+                keys = new long[n];
+                sortKeys = new long[n];
+                order = new int[n];
+                sortOrder = new int[n];
+                ranks = new int[n];
+                sortRanks = new int[n];
+            }
+        }
+
+        void ensureFrame(int n) {
+            if (frameKeys.length < n) {
+                frameKeys = new long[n];
+                frameSortKeys = new long[n];
+                frameSortOrder = new int[n];
+            }
+        }
+    }
+
+    private CurveOrdering() {
+    }
+
+    /**
+     * @param frames the frames to order
+     * @param threads the number of available threads
+     * @return true if the frames are to be ordered one by one with the
+     * parallel sort, false to order several frames in parallel
+     */
+    public static boolean isIntraFrame(DataPoint[][] frames, int threads) {
+        int movers = FrameSelection.maxMovers(frames);
+        return threads > 1 && (movers >= INTRA_FRAME_MIN_MOVERS || (frames.length < threads && movers >= PARALLEL_SORT_MIN_MOVERS));
+    }
+
+    /**
+     * @param context the context of the calling thread
+     * @return the buffers kept in the context
+     */
+    static Scratch scratch(OrderingContext context) {
+        return context.get(Scratch.class, Scratch::new);
+    }
+
+    /**
+     * Orders all frames by their keys
+     *
+     * @param unsorted the frames, possibly ragged
+     * @param function computes the keys of the positions
+     * @return the ordered frames
+     */
+    static DataPoint[][] order(DataPoint[][] unsorted, KeyFunction function) {
+        DataPoint[][] result = new DataPoint[unsorted.length][];
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (isIntraFrame(unsorted, threads)) {
+            int movers = FrameSelection.maxMovers(unsorted);
+            long[] keys = new long[movers];
+            long[] scratchKeys = new long[movers];
+            int[] order = new int[movers];
+            int[] scratchOrder = new int[movers];
+            for (int x = 0; x < unsorted.length; x++) {
+                DataPoint[] frame = unsorted[x];
+                orderChunked(frame.length, (from, to, scratch) -> CurveKernels.extract(frame, from, to, scratch.xs, scratch.ys),
+                        function, threads, keys, scratchKeys, order, scratchOrder);
+                result[x] = new DataPoint[frame.length];
+                for (int y = 0; y < frame.length; y++) {
+                    result[x][y] = frame[order[y]];
+                }
+            }
+        } else {
+            IntStream.range(0, unsorted.length).parallel().forEach(x -> {
+                DataPoint[] frame = unsorted[x];
+                int n = frame.length;
+                Scratch scratch = scratch(OrderingContext.current());
+                scratch.ensure(n);
+                CurveKernels.extract(frame, scratch.xs, scratch.ys);
+                sortFrame(scratch.xs, scratch.ys, n, function, scratch, scratch.order);
+                result[x] = new DataPoint[n];
+                for (int y = 0; y < n; y++) {
+                    result[x][y] = frame[scratch.order[y]];
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Orders the positions of one frame by their keys. Huge frames are
+     * ordered with the parallel sort.
+     *
+     * @param xs x coordinates
+     * @param ys y coordinates
+     * @param n the number of positions
+     * @param function computes the keys of the positions
+     * @param context the context of the calling thread
+     * @param perm receives the positions in curve order
+     */
+    static void orderFrame(double[] xs, double[] ys, int n, KeyFunction function, OrderingContext context, int[] perm) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Scratch scratch = scratch(context);
+        if (threads > 1 && n >= INTRA_FRAME_MIN_MOVERS) {
+            scratch.ensureFrame(n);
+            orderChunked(n, (from, to, chunk) -> {
+                System.arraycopy(xs, from, chunk.xs, 0, to - from);
+                System.arraycopy(ys, from, chunk.ys, 0, to - from);
+            }, function, threads, scratch.frameKeys, scratch.frameSortKeys, perm, scratch.frameSortOrder);
+        } else {
+            scratch.ensure(n);
+            sortFrame(xs, ys, n, function, scratch, perm);
+        }
+    }
+
+    /**
+     * Sorts a frame on the calling thread
+     */
+    private static void sortFrame(double[] xs, double[] ys, int n, KeyFunction function, Scratch scratch, int[] perm) {
+        function.keys(xs, ys, n, scratch, scratch.sortKeys, 0);
+        for (int y = 0; y < n; y++) {
+            perm[y] = y;
+        }
+        KeySort.sort(scratch.sortKeys, perm, n, scratch.keys, scratch.sortOrder, scratch.byteCounts);
+    }
+
+    /**
+     * Loads the positions of a chunk of a frame into the xs and ys of the
+     * scratch buffers
+     */
+    private interface ChunkLoader {
+
+        void load(int from, int to, Scratch scratch);
+    }
+
+    /**
+     * Orders one frame, computing the keys in parallel chunks and sorting
+     * them in parallel
+     */
+    private static void orderChunked(int n, ChunkLoader loader, KeyFunction function, int threads, long[] keys, long[] scratchKeys, int[] order, int[] scratchOrder) {
+        //more chunks than threads balance the load
+        int chunks = Math.max(1, Math.min(4 * threads, n / PARALLEL_SORT_MIN_MOVERS));
+        int chunkSize = (n + chunks - 1) / chunks;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * chunkSize;
+            int to = Math.min(n, from + chunkSize);
+            Scratch scratch = scratch(OrderingContext.current());
+            scratch.ensure(to - from);
+            loader.load(from, to, scratch);
+            function.keys(scratch.xs, scratch.ys, to - from, scratch, keys, from);
+            for (int y = from; y < to; y++) {
+                order[y] = y;
+            }
+        });
+        KeySort.parallelSort(keys, order, n, scratchKeys, scratchOrder, threads);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameSelection;
+import java.util.stream.IntStream;
+
+/**
+ * Strategy that can order single frames given as primitive coordinates,
+ * without DataPoints. The result is a permutation of the positions, so
+ * several strategies can order the same extracted coordinates (see
+ * MultiStrategyRunner). Temporaries are taken from the OrderingContext of
+ * the calling thread, so ordering a dataset frame by frame into a reused
+ * permutation does not allocate once the buffers have grown (see
+ * OrderingPipeline).
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public interface FrameStrategy extends Strategy {
+
+    /**
+     * Orders the frames of one dataset
+     */
+    public interface FrameOrdering {
+
+        /**
+         * Orders the positions of one frame. Must be safe to call from several
+         * threads at once, each with its own context.
+         *
+         * @param xs x coordinates
+         * @param ys y coordinates
+         * @param n the number of positions
+         * @param context the scratch buffers of the calling thread
+         * @param perm receives the indices of the positions in their order,
+         * at least n elements
+         */
+        public void orderFrame(double[] xs, double[] ys, int n, OrderingContext context, int[] perm);
+    }
+
+    /**
+     * Prepares the ordering of frames within the given bounds, e.g. the grid
+     * of a curve
+     *
+     * @param bounds min x, min y, max x and max y of all frames to be ordered,
+     * so grids stay fixed over time
+     * @return the ordering of single frames
+     */
+    public FrameOrdering prepare(double[] bounds);
+
+    /**
+     * Orders DataPoint frames with a frame strategy, frames in parallel
+     *
+     * @param strategy the strategy
+     * @param unsorted the frames, possibly ragged
+     * @return the ordered frames
+     */
+    public static DataPoint[][] orderFrames(FrameStrategy strategy, DataPoint[][] unsorted) {
+        FrameOrdering ordering = strategy.prepare(FrameSelection.bounds(unsorted));
+        DataPoint[][] result = new DataPoint[unsorted.length][];
+        IntStream.range(0, unsorted.length).parallel().forEach(x -> result[x] = orderFrame(ordering, unsorted[x]));
+        return result;
+    }
+
+    /**
+     * Orders one frame of DataPoints with a prepared ordering, e.g. frames of
+     * a stream on the grid of fixed bounds
+     *
+     * @param ordering the ordering
+     * @param frame the frame
+     * @return the ordered frame
+     */
+    public static DataPoint[] orderFrame(FrameOrdering ordering, DataPoint[] frame) {
+        int n = frame.length;
+        OrderingContext context = OrderingContext.current();
+        double[] xs = context.doubles(OrderingContext.XS, n);
+        double[] ys = context.doubles(OrderingContext.YS, n);
+        int[] perm = context.ints(OrderingContext.PERM, n);
+        CurveKernels.extract(frame, xs, ys);
+        ordering.orderFrame(xs, ys, n, context, perm);
+        DataPoint[] ordered = new DataPoint[n];
+        for (int y = 0; y < n; y++) {
+            ordered[y] = frame[perm[y]];
+        }
+        return ordered;
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameSelection;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Curve ordering on a coarse grid in linear time per frame. The positions are
+ * normalized to a 2^bits x 2^bits grid like in the curve strategies, but the
+ * curve rank of every cell is looked up in a table computed once, and each
+ * frame is sorted by rank with a stable radix sort (repeated counting sorts)
+ * instead of a comparison sort. Frames are ordered in parallel. Movers in the
+ * same cell keep their order in the frame, so the result is the same as that
+ * of the HilbertCurveStrategy or the ZOrderCurveStrategy set to the same
+ * resolution.
+ *
+ * The table holds 4^bits ints, 4 MB at the default of 10 bits.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class GridCurveStrategy implements FrameStrategy {
+
+    /**
+     * The curve the cells are ranked by
+     */
+    public enum Curve {
+        HILBERT,
+        MORTON
+    }
+
+    /**
+     * The default bits per axis of the grid
+     */
+    public static final int DEFAULT_BITS = 10;
+
+    /**
+     * The maximum bits per axis, limiting the rank table to 64 MB
+     */
+    public static final int MAX_BITS = 12;
+
+    //bits sorted per counting sort pass
+    static final int RADIX_BITS = 11;
+
+    //rank tables by curve and bits, shared by all instances
+    private static final ConcurrentHashMap<String, int[]> RANKS = new ConcurrentHashMap<>();
+
+    private final Curve curve;
+    private final int bits;
+    //area of the grid, null to cover the ordered frames
+    private double[] bounds;
+
+    public GridCurveStrategy() {
+        this(Curve.HILBERT, DEFAULT_BITS);
+    }
+
+    /**
+     * @param curve the curve the cells are ranked by
+     * @param bits bits per axis of the grid, 1 to MAX_BITS
+     */
+    public GridCurveStrategy(Curve curve, int bits) {
+        if (bits < 1 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("Bits per axis must be between 1 and " + MAX_BITS + ", not " + bits);
+        }
+        this.curve = curve;
+        this.bits = bits;
+    }
+
+    @Override
+    public String getName() {
+        return curve == Curve.HILBERT ? "Grid Hilbert curve" : "Grid Z-Order";
+    }
+
+    @Override
+    public DataPoint[][] getOrderedValues(DataPoint[][] unsorted) {
+        //frames may differ in length, e.g. for selections of an area
+        DataPoint[][] result = new DataPoint[unsorted.length][];
+
+        //the grid spans the bounding square of all frames so cells stay fixed over time
+        GridMapping grid = grid(bounds != null ? bounds : FrameSelection.bounds(unsorted));
+        int[] table = ranks(curve, bits);
+
+        IntStream.range(0, unsorted.length).parallel().forEach(x -> {
+            int n = unsorted[x].length;
+            CurveOrdering.Scratch scratch = CurveOrdering.scratch(OrderingContext.current());
+            scratch.ensure(n);
+            CurveKernels.extract(unsorted[x], scratch.xs, scratch.ys);
+            orderFrame(scratch.xs, scratch.ys, n, grid, table, scratch, scratch.order);
+            result[x] = new DataPoint[n];
+            for (int y = 0; y < n; y++) {
+                result[x][y] = unsorted[x][scratch.order[y]];
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public FrameOrdering prepare(double[] bounds) {
+        GridMapping grid = grid(this.bounds != null ? this.bounds : bounds);
+        int[] table = ranks(curve, bits);
+        return (xs, ys, n, context, perm) -> {
+            CurveOrdering.Scratch scratch = CurveOrdering.scratch(context);
+            scratch.ensure(n);
+            orderFrame(xs, ys, n, grid, table, scratch, perm);
+        };
+    }
+
+    private GridMapping grid(double[] b) {
+        return new GridMapping(b[0], b[1], Math.max(b[2] - b[0], b[3] - b[1]), bits);
+    }
+
+    /**
+     * Looks up the ranks of the cells of the positions and sorts them
+     */
+    private void orderFrame(double[] xs, double[] ys, int n, GridMapping grid, int[] table, CurveOrdering.Scratch scratch, int[] perm) {
+        grid.toCells(xs, ys, n, scratch.cellX, scratch.cellY);
+        int[] keys = scratch.ranks;
+        for (int y = 0; y < n; y++) {
+            keys[y] = table[(scratch.cellY[y] << bits) | scratch.cellX[y]];
+            perm[y] = y;
+        }
+        sort(keys, perm, scratch.sortRanks, scratch.sortOrder, n, 2 * bits, scratch.counts);
+    }
+
+    /**
+     * Stable LSD radix sort of the keys, carrying the order along. With an
+     * odd number of passes, the sorted data ends up in the scratch arrays and
+     * is copied back.
+     */
+    private static void sort(int[] keys, int[] order, int[] scratchKeys, int[] scratchOrder, int n, int keyBits, int[] counts) {
+        int[] inKeys = keys;
+        int[] inOrder = order;
+        int[] outKeys = scratchKeys;
+        int[] outOrder = scratchOrder;
+        for (int shift = 0; shift < keyBits; shift += RADIX_BITS) {
+            int mask = (1 << Math.min(RADIX_BITS, keyBits - shift)) - 1;
+            Arrays.fill(counts, 0, mask + 2, 0);
+            for (int i = 0; i < n; i++) {
+                counts[((inKeys[i] >>> shift) & mask) + 1]++;
+            }
+            for (int b = 0; b <= mask; b++) {
+                counts[b + 1] += counts[b];
+            }
+            for (int i = 0; i < n; i++) {
+                int p = counts[(inKeys[i] >>> shift) & mask]++;
+                outKeys[p] = inKeys[i];
+                outOrder[p] = inOrder[i];
+            }
+            int[] t = inKeys;
+            inKeys = outKeys;
+            outKeys = t;
+            t = inOrder;
+            inOrder = outOrder;
+            outOrder = t;
+        }
+        if (inOrder != order) {
+            System.arraycopy(inKeys, 0, keys, 0, n);
+            System.arraycopy(inOrder, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * Returns the curve rank of every cell, indexed by row * 2^bits + column
+     */
+    private static int[] ranks(Curve curve, int bits) {
+        return RANKS.computeIfAbsent(curve + "/" + bits, key -> {
+            int side = 1 << bits;
+            int[] table = new int[side * side];
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    table[(y << bits) | x] = (int) (curve == Curve.HILBERT ? CurveKernels.hilbertKey(x, y, bits) : MortonEncoder.encode(x, y));
+                }
+            }
+            return table;
+        });
+    }
+
+    /**
+     * @return the bits per axis of the grid
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Fixes the area covered by the grid, e.g. to the bounds of a whole
+     * dataset when it is ordered in parts. By default, the grid covers the
+     * frames to be ordered.
+     *
+     * @param minX the smallest x coordinate
+     * @param minY the smallest y coordinate
+     * @param maxX the largest x coordinate
+     * @param maxY the largest y coordinate
+     */
+    public void setBounds(double minX, double minY, double maxX, double maxY) {
+        this.bounds = new double[]{minX, minY, maxX, maxY};
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the points of one frame for radius and nearest neighbor
+ * queries. The points are bucketed into square cells with a counting sort, so
+ * building takes linear time and the index consists of a few flat arrays.
+ * These are kept and only grown when an index is rebuilt, so one index per
+ * thread can be reused frame after frame without allocations. Not thread
+ * safe.
+ *
+ * Queries return indices into the coordinate arrays the index was built from.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class GridIndex {
+
+    //cells per point at most, bounding the memory for sparse frames
+    private static final int MAX_CELLS_PER_POINT = 4;
+
+    private double[] xs;
+    private double[] ys;
+    private int n;
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int cols;
+    private int rows;
+    //points of cell c are items[cellStart[c]] .. items[cellStart[c + 1] - 1]
+    private int[] cellStart = new int[0];
+    private int[] items = new int[0];
+    private int[] cellOf = new int[0];
+
+    /**
+     * Builds the index with about one point per cell
+     *
+     * @param xs x coordinates
+     * @param ys y coordinates
+     * @param n the number of points, the first n of the arrays
+     */
+    public void build(double[] xs, double[] ys, int n) {
+        build(xs, ys, n, 0);
+    }
+
+    /**
+     * Builds the index. Radius queries are fastest with cells about the size
+     * of the radius. Cells are enlarged if there would be more than a few per
+     * point.
+     *
+     * @param xs x coordinates
+     * @param ys y coordinates
+     * @param n the number of points, the first n of the arrays
+     * @param cellSize the edge length of the cells, 0 for about one point per
+     * cell
+     */
+    public void build(double[] xs, double[] ys, int n, double cellSize) {
+        this.xs = xs;
+        this.ys = ys;
+        this.n = n;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double width = n > 0 ? maxX - minX : 0;
+        double height = n > 0 ? maxY - minY : 0;
+        double area = width * height;
+        if (!(cellSize > 0)) {
+            cellSize = Math.sqrt(area / Math.max(1, n));
+        }
+        cellSize = Math.max(cellSize, Math.sqrt(area / ((double) MAX_CELLS_PER_POINT * Math.max(1, n))));
+        //also covers all points on one spot or on a line
+        cellSize = Math.max(cellSize, Math.max(width, height) / ((double) MAX_CELLS_PER_POINT * Math.max(1, n)));
+        if (!(cellSize > 0)) {
+            cellSize = 1;
+        }
+        this.cellSize = cellSize;
+        cols = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+        int cells = cols * rows;
+
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+        }
+        if (items.length < n) {
+            items = new int[n];
+            cellOf = new int[n];
+        }
+        //counting sort of the points by cell
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        for (int i = 0; i < n; i++) {
+            int c = cell(col(xs[i]), row(ys[i]));
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        for (int i = 0; i < n; i++) {
+            items[cellStart[cellOf[i]]++] = i;
+        }
+        //the placement advanced the starts to the ends, shift them back
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /**
+     * @return the number of indexed points
+     */
+    public int size() {
+        return n;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Finds all points within a radius
+     *
+     * @param x x of the center
+     * @param y y of the center
+     * @param radius the radius
+     * @param out receives the indices of the points found, as many as fit
+     * @return the number of points within the radius, which may exceed the
+     * length of out
+     */
+    public int radius(double x, double y, double radius, int[] out) {
+        double r2 = radius * radius;
+        int col0 = col(x - radius);
+        int col1 = col(x + radius);
+        int row0 = row(y - radius);
+        int row1 = row(y + radius);
+        int count = 0;
+        for (int r = row0; r <= row1; r++) {
+            for (int c = col0; c <= col1; c++) {
+                int cell = cell(c, r);
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = items[k];
+                    double dx = xs[i] - x;
+                    double dy = ys[i] - y;
+                    if (dx * dx + dy * dy <= r2) {
+                        if (count < out.length) {
+                            out[count] = i;
+                        }
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the k nearest points, searching rings of cells around the query
+     * until no closer point can be left
+     *
+     * @param x x of the query
+     * @param y y of the query
+     * @param exclude index of a point to skip, e.g. the query point itself,
+     * or -1
+     * @param out receives the indices of the nearest points, closest first.
+     * Its length is k.
+     * @param distances receives the squared distances of the points found, at
+     * least as long as out
+     * @return the number of points found, less than k if there are fewer
+     * points
+     */
+    public int nearest(double x, double y, int exclude, int[] out, double[] distances) {
+        int k = out.length;
+        if (k == 0 || n == 0) {
+            return 0;
+        }
+        int qc = col(x);
+        int qr = row(y);
+        int found = 0;
+        int maxRing = Math.max(Math.max(qc, cols - 1 - qc), Math.max(qr, rows - 1 - qr));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = qr - ring; r <= qr + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                //inner rows of the ring only have their two end cells
+                int step = (r == qr - ring || r == qr + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int c = qc - ring; c <= qc + ring; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    int cell = r * cols + c;
+                    for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+                        int i = items[j];
+                        if (i == exclude) {
+                            continue;
+                        }
+                        double dx = xs[i] - x;
+                        double dy = ys[i] - y;
+                        double d2 = dx * dx + dy * dy;
+                        if (found == k && d2 >= distances[k - 1]) {
+                            continue;
+                        }
+                        //insertion into the sorted candidates
+                        int p = found < k ? found++ : k - 1;
+                        while (p > 0 && distances[p - 1] > d2) {
+                            out[p] = out[p - 1];
+                            distances[p] = distances[p - 1];
+                            p--;
+                        }
+                        out[p] = i;
+                        distances[p] = d2;
+                    }
+                }
+            }
+            if (found == k) {
+                //points outside the searched rings are at least this far
+                double left = x - (minX + (qc - ring) * cellSize);
+                double right = minX + (qc + ring + 1) * cellSize - x;
+                double bottom = y - (minY + (qr - ring) * cellSize);
+                double top = minY + (qr + ring + 1) * cellSize - y;
+                double bound = Math.min(Math.min(left, right), Math.min(bottom, top));
+                if (bound > 0 && distances[k - 1] <= bound * bound) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    private int col(double x) {
+        return Math.max(0, Math.min(cols - 1, (int) ((x - minX) / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) ((y - minY) / cellSize)));
+    }
+
+    private int cell(int col, int row) {
+        return row * cols + col;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+
+/**
+ * Maps positions to the cells of a square 2^bits x 2^bits grid. The grid spans
+ * the bounding square of all frames of a dataset, so a cell covers the same
+ * area in every frame.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class GridMapping {
+
+    private final double minX;
+    private final double minY;
+    private final double scale;
+    private final double maxCell;
+    private final int bits;
+
+    /**
+     * @param minX the smallest x coordinate of the grid
+     * @param minY the smallest y coordinate of the grid
+     * @param extent the side length of the grid in coordinate units
+     * @param bits bits per axis, 1 to 32
+     */
+    public GridMapping(double minX, double minY, double extent, int bits) {
+        this.minX = minX;
+        this.minY = minY;
+        this.bits = bits;
+        this.maxCell = (double) ((1L << bits) - 1);
+        this.scale = extent > 0 ? maxCell / extent : 0;
+    }
+
+    /**
+     * Creates the mapping for the bounding square of the given frames
+     *
+     * @param frames the frames to be covered by the grid
+     * @param bits bits per axis, 1 to 32
+     * @return the grid mapping
+     */
+    public static GridMapping of(DataPoint[][] frames, int bits) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (DataPoint[] frame : frames) {
+            for (DataPoint dp : frame) {
+                minX = Math.min(minX, dp.getX());
+                minY = Math.min(minY, dp.getY());
+                maxX = Math.max(maxX, dp.getX());
+                maxY = Math.max(maxY, dp.getY());
+            }
+        }
+        return new GridMapping(minX, minY, Math.max(maxX - minX, maxY - minY), bits);
+    }
+
+    /**
+     * Normalizes the coordinates of one frame to grid cells. The cells are to
+     * be interpreted as unsigned ints.
+     *
+     * @param xs x coordinates
+     * @param ys y coordinates
+     * @param n the number of positions
+     * @param cellX the array the cell columns are written to
+     * @param cellY the array the cell rows are written to
+     */
+    public void toCells(double[] xs, double[] ys, int n, int[] cellX, int[] cellY) {
+        CurveKernels.normalize(xs, n, minX, scale, maxCell, cellX);
+        CurveKernels.normalize(ys, n, minY, scale, maxCell, cellY);
+    }
+
+    /**
+     * @return bits per axis
+     */
+    public int getBits() {
+        return bits;
+    }
+
+}
@@ -16,8 +16,7 @@
 package dbvis.motionrugs.strategies;
 
 import dbvis.motionrugs.data.DataPoint;
-import java.util.Arrays;
-import java.util.Comparator;
+import dbvis.motionrugs.data.FrameSelection;
 
 /**
  * Hilbert curve ordering strategy
@@ -25,10 +24,22 @@ import java.util.Comparator;
  * @author Eren Cakmak, University of Konstanz <cakmak@dbvis.inf.uni-konstanz.de>
  * @author Juri Buchmüller, University of Konstanz <buchmueller@dbvis.inf.uni-konstanz.de>
  */
-public class HilbertCurveStrategy implements Strategy {
+public class HilbertCurveStrategy implements FrameStrategy {
 
-    //hilbert order value
-    private int hilbertOrder = 2;
+    //hilbert order value, the positions are normalized to a 2^order x 2^order grid
+    private int hilbertOrder = 16;
+    //area of the grid, null to cover the ordered frames
+    private double[] bounds;
+
+    public HilbertCurveStrategy() {
+    }
+
+    /**
+     * @param hilbertOrder the hilbert order value, see setHilbertOrder
+     */
+    public HilbertCurveStrategy(int hilbertOrder) {
+        setHilbertOrder(hilbertOrder);
+    }
 
     @Override
     public String getName() {
@@ -43,108 +54,69 @@ public class HilbertCurveStrategy implements Strategy {
      */
     @Override
     public DataPoint[][] getOrderedValues(DataPoint[][] unsorted) {
-        DataPoint[][] result = new DataPoint[unsorted.length][unsorted[0].length];
-
-        for (int x = 0; x < unsorted.length; x++) {
+        //the grid spans the bounding square of all frames so cells stay fixed over time
+        double[] b = bounds != null ? bounds : FrameSelection.bounds(unsorted);
 
-            //idx is an array of the indexes 
-            Integer[] idx = new Integer[unsorted[x].length];
-            //array to save the z-ordering numbers
-            long hilbertValues[] = new long[unsorted[x].length];
+        //frames, or chunks of huge frames, are ordered in parallel
+        DataPoint[][] result = CurveOrdering.order(unsorted, keyFunction(b));
 
-            //calculate the z-ordering numbers
-            for (int y = 0; y < unsorted[x].length; y++) {
-                idx[y] = y;
-                hilbertValues[y] = encode((int) unsorted[x][y].getX(), (int) unsorted[x][y].getY(), this.hilbertOrder);
-            }
+        return result;
+    }
 
-            //sort the index array with comparing the zValues array values 
-            Arrays.sort(idx, new Comparator<Integer>() {
-                @Override
-                public int compare(final Integer o1, final Integer o2) {
-                    return Long.compare(hilbertValues[o1], hilbertValues[o2]);
-                    
-                }
-            });
+    @Override
+    public FrameOrdering prepare(double[] bounds) {
+        CurveOrdering.KeyFunction keys = keyFunction(this.bounds != null ? this.bounds : bounds);
+        return (xs, ys, n, context, perm) -> CurveOrdering.orderFrame(xs, ys, n, keys, context, perm);
+    }
 
-            //sort the result set after the z-ordering 
-            for (int y = 0; y < unsorted[x].length; y++) {
-                result[x][y] = unsorted[x][idx[y]];
-//                System.out.print(hilbertValues[idx[y]] + " ");
-            }
-        }
-        return result;
+    /**
+     * Computes the hilbert numbers on the positions normalized to the grid
+     * covering the bounds
+     */
+    private CurveOrdering.KeyFunction keyFunction(double[] b) {
+        GridMapping grid = new GridMapping(b[0], b[1], Math.max(b[2] - b[0], b[3] - b[1]), hilbertOrder);
+        return (xs, ys, n, scratch, keys, offset) -> {
+            grid.toCells(xs, ys, n, scratch.cellX, scratch.cellY);
+            CurveKernels.hilbertKeys(scratch.cellX, scratch.cellY, n, hilbertOrder, scratch.keys, scratch.scratchX, scratch.scratchY);
+            System.arraycopy(scratch.keys, 0, keys, offset, n);
+        };
     }
 
     /**
-     * Source:
-     * http://stackoverflow.com/questions/106237/calculate-the-hilbert-value-of-a-point-for-use-in-a-hilbert-r-tree
-     *
      * Find the Hilbert order (=vertex index) for the given grid cell
      * coordinates.
      *
      * @param x cell column (from 0)
      * @param y cell row (from 0)
      * @param r resolution of Hilbert curve (grid will have Math.pow(2,r) rows
-     * and cols)
+     * and cols), at most 15
      * @return Hilbert order
      */
     public int encode(int x, int y, int r) {
-
-        int mask = (1 << r) - 1;
-        int hodd = 0;
-        int heven = x ^ y;
-        int notx = ~x & mask;
-        int noty = ~y & mask;
-        int temp = notx ^ y;
-
-        int v0 = 0, v1 = 0;
-        for (int k = 1; k < r; k++) {
-            v1 = ((v1 & heven) | ((v0 ^ noty) & temp)) >> 1;
-            v0 = ((v0 & (v1 ^ notx)) | (~v0 & (v1 ^ noty))) >> 1;
-        }
-        hodd = (~v0 & (v1 ^ x)) | (v0 & (v1 ^ noty));
-
-        return interleaveBits(hodd, heven);
+        return (int) CurveKernels.hilbertKey(x, y, r);
     }
 
     /**
-     * Interleave the bits from two input integer values
-     *
-     * @param odd integer holding bit values for odd bit positions
-     * @param even integer holding bit values for even bit positions
-     * @return the integer that results from interleaving the input bits
+     * Set the hilbert order value
      *
-     * @todo: I'm sure there's a more elegant way of doing this !
+     * @param value new hilbert order value, values above 31 are clamped
      */
-    private int interleaveBits(int odd, int even) {
-        int val = 0;
-        // Replaced this line with the improved code provided by Tuska
-        // int n = Math.max(Integer.highestOneBit(odd), Integer.highestOneBit(even));
-        int max = Math.max(odd, even);
-        int n = 0;
-        while (max > 0) {
-            n++;
-            max >>= 1;
-        }
-
-        for (int i = 0; i < n; i++) {
-            int bitMask = 1 << i;
-            int a = (even & bitMask) > 0 ? (1 << (2 * i)) : 0;
-            int b = (odd & bitMask) > 0 ? (1 << (2 * i + 1)) : 0;
-            val += a + b;
-        }
-
-        return val;
+    public void setHilbertOrder(int value) {
+        this.hilbertOrder = Math.max(1, Math.min(CurveKernels.MAX_HILBERT_ORDER, value));
     }
 
     /**
-     * Set the hilbert order value
+     * Fixes the area covered by the grid, e.g. to the bounds of a whole
+     * dataset when it is ordered in parts. By default, the grid covers the
+     * frames to be ordered.
      *
-     * @param value new hilbert order value
+     * @param minX the smallest x coordinate
+     * @param minY the smallest y coordinate
+     * @param maxX the largest x coordinate
+     * @param maxY the largest y coordinate
      */
-    public void setHilbertOrder(int value) {
-        this.hilbertOrder = value;
+    public void setBounds(double minX, double minY, double maxX, double maxY) {
+        this.bounds = new double[]{minX, minY, maxX, maxY};
     }
 
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Stable sorts of curve keys, returning the order of the positions. The keys
+ * are sorted by their unsigned value with an LSD radix sort on bytes, so
+ * positions with equal keys keep their order, like with a stable comparison
+ * sort. Bytes that are the same in all keys, e.g. the high bytes of keys on
+ * coarse grids, are skipped.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public final class KeySort {
+
+    private static final int RADIX_BITS = 8;
+    static final int BUCKETS = 1 << RADIX_BITS;
+
+    private KeySort() {
+    }
+
+    /**
+     * Sorts the keys and the order along with them on the calling thread
+     *
+     * @param keys the keys, sorted on return
+     * @param order the positions of the keys, usually 0..n-1, in sorted order
+     * on return
+     * @param n the number of keys
+     * @param scratchKeys scratch array of at least n elements
+     * @param scratchOrder scratch array of at least n elements
+     */
+    public static void sort(long[] keys, int[] order, int n, long[] scratchKeys, int[] scratchOrder) {
+        sort(keys, order, n, scratchKeys, scratchOrder, new int[BUCKETS]);
+    }
+
+    /**
+     * Sorts the keys and the order along with them on the calling thread,
+     * without allocations
+     *
+     * @param keys the keys, sorted on return
+     * @param order the positions of the keys, usually 0..n-1, in sorted order
+     * on return
+     * @param n the number of keys
+     * @param scratchKeys scratch array of at least n elements
+     * @param scratchOrder scratch array of at least n elements
+     * @param counts scratch array of 256 elements
+     */
+    public static void sort(long[] keys, int[] order, int n, long[] scratchKeys, int[] scratchOrder, int[] counts) {
+        long[] inKeys = keys;
+        int[] inOrder = order;
+        long[] outKeys = scratchKeys;
+        int[] outOrder = scratchOrder;
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (inKeys[i] >>> shift) & (BUCKETS - 1)]++;
+            }
+            if (n == 0 || counts[(int) (inKeys[0] >>> shift) & (BUCKETS - 1)] == n) {
+                continue;
+            }
+            int sum = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                int c = counts[b];
+                counts[b] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int p = counts[(int) (inKeys[i] >>> shift) & (BUCKETS - 1)]++;
+                outKeys[p] = inKeys[i];
+                outOrder[p] = inOrder[i];
+            }
+            long[] tk = inKeys;
+            inKeys = outKeys;
+            outKeys = tk;
+            int[] to = inOrder;
+            inOrder = outOrder;
+            outOrder = to;
+        }
+        if (inOrder != order) {
+            System.arraycopy(inKeys, 0, keys, 0, n);
+            System.arraycopy(inOrder, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * Sorts the keys and the order along with them, splitting every pass into
+     * chunks processed in parallel. Each chunk counts its bytes, then the
+     * chunks scatter their keys to disjoint ranges of the output, so the sort
+     * stays stable.
+     *
+     * @param keys the keys, sorted on return
+     * @param order the positions of the keys, usually 0..n-1, in sorted order
+     * on return
+     * @param n the number of keys
+     * @param scratchKeys scratch array of at least n elements
+     * @param scratchOrder scratch array of at least n elements
+     * @param chunks the number of parallel chunks
+     */
+    public static void parallelSort(long[] keys, int[] order, int n, long[] scratchKeys, int[] scratchOrder, int chunks) {
+        chunks = Math.max(1, Math.min(chunks, n / BUCKETS));
+        if (chunks == 1) {
+            sort(keys, order, n, scratchKeys, scratchOrder);
+            return;
+        }
+        int chunkSize = (n + chunks - 1) / chunks;
+        int[][] counts = new int[chunks][BUCKETS];
+        long[][] keyArrays = {keys, scratchKeys};
+        int[][] orderArrays = {order, scratchOrder};
+        int in = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            final int s = shift;
+            final long[] inKeys = keyArrays[in];
+            final int[] inOrder = orderArrays[in];
+            final long[] outKeys = keyArrays[1 - in];
+            final int[] outOrder = orderArrays[1 - in];
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] count = counts[c];
+                Arrays.fill(count, 0);
+                for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                    count[(int) (inKeys[i] >>> s) & (BUCKETS - 1)]++;
+                }
+            });
+            //offsets by bucket, then chunk
+            int sum = 0;
+            boolean constant = false;
+            for (int b = 0; b < BUCKETS; b++) {
+                int bucket = 0;
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][b];
+                    counts[c][b] = sum;
+                    sum += count;
+                    bucket += count;
+                }
+                constant |= bucket == n;
+            }
+            if (constant) {
+                continue;
+            }
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] offset = counts[c];
+                for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                    int p = offset[(int) (inKeys[i] >>> s) & (BUCKETS - 1)]++;
+                    outKeys[p] = inKeys[i];
+                    outOrder[p] = inOrder[i];
+                }
+            });
+            in = 1 - in;
+        }
+        if (in != 0) {
+            System.arraycopy(scratchKeys, 0, keys, 0, n);
+            System.arraycopy(scratchOrder, 0, order, 0, n);
+        }
+    }
+
+}
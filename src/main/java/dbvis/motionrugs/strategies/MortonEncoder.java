@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Morton (z-order) encoding of two unsigned grid coordinates with up to 32 bits
+ * per axis into a 64 bit key. The key has to be compared unsigned (e.g. with
+ * Long.compareUnsigned) if the full 32 bits per axis are used.
+ *
+ * Bits are spread with magic numbers, see
+ * http://graphics.stanford.edu/~seander/bithacks.html#InterleaveBMN. On JDK 19+
+ * Long.expand (a single PDEP instruction on x86) is used instead.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public final class MortonEncoder {
+
+    /**
+     * The maximum number of bits per axis
+     */
+    public static final int MAX_BITS = 32;
+
+    private static final long EVEN_BITS = 0x5555555555555555L;
+    private static final long ODD_BITS = 0xAAAAAAAAAAAAAAAAL;
+
+    //Long.expand(long, long) is only available from JDK 19 on, the project targets Java 9
+    private static final MethodHandle EXPAND = lookupExpand();
+
+    private MortonEncoder() {
+    }
+
+    private static MethodHandle lookupExpand() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Long.class, "expand", MethodType.methodType(long.class, long.class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the JDK intrinsic Long.expand is used for bit spreading
+     */
+    public static boolean isIntrinsicAvailable() {
+        return EXPAND != null;
+    }
+
+    /**
+     * Interleaves the bits of two unsigned 32 bit grid coordinates. The bits
+     * of x are placed on the even, the bits of y on the odd key positions.
+     *
+     * @param x cell column, interpreted as unsigned int
+     * @param y cell row, interpreted as unsigned int
+     * @return the Morton code, to be compared unsigned
+     */
+    public static long encode(int x, int y) {
+        if (EXPAND != null) {
+            return expand(x, EVEN_BITS) | expand(y, ODD_BITS);
+        }
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * Encodes the grid coordinates of a whole frame. Written as a plain loop
+     * over primitive arrays so that it can be unrolled and vectorized by the
+     * JIT.
+     *
+     * @param xs cell columns, interpreted as unsigned ints
+     * @param ys cell rows, interpreted as unsigned ints
+     * @param keys the array the Morton codes are written to
+     * @param n the number of coordinates to encode
+     */
+    public static void encode(int[] xs, int[] ys, long[] keys, int n) {
+        if (EXPAND != null) {
+            for (int i = 0; i < n; i++) {
+                keys[i] = expand(xs[i], EVEN_BITS) | expand(ys[i], ODD_BITS);
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            keys[i] = spread(xs[i]) | (spread(ys[i]) << 1);
+        }
+    }
+
+    /**
+     * Spreads the 32 bits of v to the even bit positions of a long.
+     *
+     * @param v the value to spread, interpreted as unsigned int
+     * @return the spread bits
+     */
+    static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    private static long expand(int v, long mask) {
+        try {
+            return (long) EXPAND.invokeExact(v & 0xFFFFFFFFL, mask);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameSelection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Orders a dataset with several strategies in one pass, e.g. to compare them.
+ * The coordinates of each frame are extracted from the DataPoints once and
+ * every FrameStrategy orders the same primitive buffers, frames in parallel.
+ * Other strategies are run on their own and their result is converted.
+ *
+ * The results are permutations: perm[frame][i] is the position in the
+ * unsorted frame of the i-th mover in the ordering. They take 4 bytes per
+ * point, half of an ordering of DataPoints, and apply turns them into one.
+ * Only strategies that reorder the points of the frames can be run, see
+ * isPermutation.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class MultiStrategyRunner {
+
+    private final List<Strategy> strategies;
+
+    /**
+     * @param strategies the strategies to run
+     */
+    public MultiStrategyRunner(List<Strategy> strategies) {
+        this.strategies = strategies;
+    }
+
+    /**
+     * Orders the frames with all strategies
+     *
+     * @param unsorted the frames, possibly ragged
+     * @return the permutations by strategy name, in the order of the
+     * strategies
+     */
+    public Map<String, int[][]> run(DataPoint[][] unsorted) {
+        Map<String, int[][]> results = new LinkedHashMap<>();
+        double[] bounds = FrameSelection.bounds(unsorted);
+        FrameStrategy.FrameOrdering[] fused = strategies.stream().filter(s -> s instanceof FrameStrategy)
+                .map(s -> ((FrameStrategy) s).prepare(bounds)).toArray(FrameStrategy.FrameOrdering[]::new);
+        int[][][] perms = new int[fused.length][unsorted.length][];
+
+        if (fused.length > 0) {
+            IntStream.range(0, unsorted.length).parallel().forEach(x -> {
+                int n = unsorted[x].length;
+                OrderingContext context = OrderingContext.current();
+                double[] xs = context.doubles(OrderingContext.XS, n);
+                double[] ys = context.doubles(OrderingContext.YS, n);
+                CurveKernels.extract(unsorted[x], xs, ys);
+                for (int s = 0; s < fused.length; s++) {
+                    perms[s][x] = new int[n];
+                    fused[s].orderFrame(xs, ys, n, context, perms[s][x]);
+                }
+            });
+        }
+
+        int next = 0;
+        for (Strategy strategy : strategies) {
+            if (strategy instanceof FrameStrategy) {
+                results.put(strategy.getName(), perms[next++]);
+            } else {
+                results.put(strategy.getName(), toPermutation(unsorted, strategy.getOrderedValues(unsorted)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param strategy a strategy
+     * @return if the strategy returns the points of the frames it is given,
+     * so its ordering is a permutation. Aggregating strategies create new
+     * frames.
+     */
+    public static boolean isPermutation(Strategy strategy) {
+        return !(strategy instanceof AggregatingStrategy);
+    }
+
+    /**
+     * Finds the positions of the ordered DataPoints in the unsorted frames
+     *
+     * @param unsorted the unsorted frames
+     * @param ordered the same frames, ordered
+     * @return the permutations
+     * @throws IllegalArgumentException if a frame is not a reordering of the
+     * unsorted one
+     */
+    public static int[][] toPermutation(DataPoint[][] unsorted, DataPoint[][] ordered) {
+        int[][] perm = new int[unsorted.length][];
+        IntStream.range(0, unsorted.length).parallel().forEach(x -> {
+            IdentityHashMap<DataPoint, Integer> positions = new IdentityHashMap<>(unsorted[x].length * 2);
+            for (int y = 0; y < unsorted[x].length; y++) {
+                positions.put(unsorted[x][y], y);
+            }
+            perm[x] = new int[ordered[x].length];
+            for (int y = 0; y < ordered[x].length; y++) {
+                Integer position = positions.get(ordered[x][y]);
+                if (position == null) {
+                    throw new IllegalArgumentException("Frame " + x + " of the ordering is not a reordering of the frame");
+                }
+                perm[x][y] = position;
+            }
+        });
+        return perm;
+    }
+
+    /**
+     * Applies permutations to the frames
+     *
+     * @param unsorted the unsorted frames, at least as many as permutations
+     * @param perm the permutations
+     * @return the ordered frames, one per permutation
+     */
+    public static DataPoint[][] apply(DataPoint[][] unsorted, int[][] perm) {
+        DataPoint[][] ordered = new DataPoint[perm.length][];
+        IntStream.range(0, perm.length).parallel().forEach(x -> {
+            ordered[x] = new DataPoint[perm[x].length];
+            for (int y = 0; y < perm[x].length; y++) {
+                ordered[x][y] = unsorted[x][perm[x][y]];
+            }
+        });
+        return ordered;
+    }
+
+}
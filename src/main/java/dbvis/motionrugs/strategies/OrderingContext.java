@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Scratch buffers of one thread ordering frames. Buffers are grown when a
+ * larger frame comes along and reused otherwise, so ordering frame after
+ * frame with the same context allocates nothing once the largest frame has
+ * been seen. A context must only be used by one thread at a time.
+ *
+ * Drivers pass frames in numbered buffers (XS, YS and PERM), strategies keep
+ * their own scratch objects in the context.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public final class OrderingContext {
+
+    /**
+     * Double buffer of the x coordinates of a frame
+     */
+    public static final int XS = 0;
+    /**
+     * Double buffer of the y coordinates of a frame
+     */
+    public static final int YS = 1;
+    /**
+     * Int buffer of the permutation of a frame
+     */
+    public static final int PERM = 0;
+
+    private static final ThreadLocal<OrderingContext> CURRENT = ThreadLocal.withInitial(OrderingContext::new);
+
+    private double[][] doubles = new double[4][0];
+    private int[][] ints = new int[8][0];
+    private long[][] longs = new long[4][0];
+    private final HashMap<Object, Object> objects = new HashMap<>();
+
+    /**
+     * @return the context of the calling thread
+     */
+    public static OrderingContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param slot the number of the buffer
+     * @param n the minimum length
+     * @return a buffer of at least n doubles
+     */
+    public double[] doubles(int slot, int n) {
+        if (slot >= doubles.length) {
+            doubles = Arrays.copyOf(doubles, slot + 1);
+        }
+        if (doubles[slot] == null || doubles[slot].length < n) {
+            doubles[slot] = new double[n];
+        }
+        return doubles[slot];
+    }
+
+    /**
+     * @param slot the number of the buffer
+     * @param n the minimum length
+     * @return a buffer of at least n ints
+     */
+    public int[] ints(int slot, int n) {
+        if (slot >= ints.length) {
+            ints = Arrays.copyOf(ints, slot + 1);
+        }
+        if (ints[slot] == null || ints[slot].length < n) {
+            ints[slot] = new int[n];
+        }
+        return ints[slot];
+    }
+
+    /**
+     * @param slot the number of the buffer
+     * @param n the minimum length
+     * @return a buffer of at least n longs
+     */
+    public long[] longs(int slot, int n) {
+        if (slot >= longs.length) {
+            longs = Arrays.copyOf(longs, slot + 1);
+        }
+        if (longs[slot] == null || longs[slot].length < n) {
+            longs[slot] = new long[n];
+        }
+        return longs[slot];
+    }
+
+    /**
+     * Returns a scratch object kept in this context, creating it on first use
+     *
+     * @param <T> the type of the object
+     * @param key the key of the object, e.g. its class
+     * @param factory creates the object
+     * @return the object
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Supplier<T> factory) {
+        Object value = objects.get(key);
+        if (value == null) {
+            value = factory.get();
+            objects.put(key, value);
+        }
+        return (T) value;
+    }
+
+}
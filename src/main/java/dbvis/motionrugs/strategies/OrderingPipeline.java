@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import dbvis.motionrugs.data.DataPoint;
+import dbvis.motionrugs.data.FrameSelection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Orders a dataset frame by frame with a FrameStrategy. Frames are read from
+ * a FrameSource into the buffers of an OrderingContext and their permutations
+ * handed to a PermutationSink, so once the buffers have grown to the largest
+ * frame no further memory is allocated. The sequential driver orders the
+ * frames in sequence on the calling thread, the parallel driver orders
+ * interleaved frames on several threads, each with its own context.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class OrderingPipeline {
+
+    /**
+     * Provides the positions of the frames
+     */
+    public interface FrameSource {
+
+        /**
+         * @return the number of frames
+         */
+        public int getFrameCount();
+
+        /**
+         * @return min x, min y, max x and max y of all frames
+         */
+        public double[] getBounds();
+
+        /**
+         * @param frame the frame
+         * @return the number of positions of the frame
+         */
+        public int getSize(int frame);
+
+        /**
+         * Reads the positions of a frame. Must be safe to call from several
+         * threads at once for the parallel driver.
+         *
+         * @param frame the frame
+         * @param xs receives the x coordinates
+         * @param ys receives the y coordinates
+         */
+        public void load(int frame, double[] xs, double[] ys);
+    }
+
+    /**
+     * Receives the permutations of the frames
+     */
+    public interface PermutationSink {
+
+        /**
+         * Receives the permutation of a frame. The array is reused for the
+         * next frame, so it has to be copied to be kept. Called from several
+         * threads at once by the parallel driver.
+         *
+         * @param frame the frame
+         * @param perm the indices of the positions in their order
+         * @param n the number of positions
+         */
+        public void accept(int frame, int[] perm, int n);
+    }
+
+    private final FrameStrategy strategy;
+
+    /**
+     * @param strategy the strategy ordering the frames
+     */
+    public OrderingPipeline(FrameStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Orders all frames in sequence on the calling thread
+     *
+     * @param source the frames
+     * @param sink receives the permutations
+     */
+    public void run(FrameSource source, PermutationSink sink) {
+        run(strategy.prepare(source.getBounds()), source, sink, OrderingContext.current(), 0, 1);
+    }
+
+    /**
+     * Orders the frames on several threads. The sink receives the frames out
+     * of order.
+     *
+     * @param source the frames
+     * @param sink receives the permutations
+     * @param threads the number of threads
+     * @throws InterruptedException if interrupted while waiting for the
+     * threads
+     */
+    public void runParallel(FrameSource source, PermutationSink sink, int threads) throws InterruptedException {
+        FrameStrategy.FrameOrdering ordering = strategy.prepare(source.getBounds());
+        if (threads <= 1) {
+            run(ordering, source, sink, OrderingContext.current(), 0, 1);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                done.add(pool.submit(() -> run(ordering, source, sink, new OrderingContext(), first, threads)));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Could not order frames", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Orders every step-th frame starting at first
+     */
+    private static void run(FrameStrategy.FrameOrdering ordering, FrameSource source, PermutationSink sink, OrderingContext context, int first, int step) {
+        int frames = source.getFrameCount();
+        for (int x = first; x < frames; x += step) {
+            int n = source.getSize(x);
+            double[] xs = context.doubles(OrderingContext.XS, n);
+            double[] ys = context.doubles(OrderingContext.YS, n);
+            int[] perm = context.ints(OrderingContext.PERM, n);
+            source.load(x, xs, ys);
+            ordering.orderFrame(xs, ys, n, context, perm);
+            sink.accept(x, perm, n);
+        }
+    }
+
+    /**
+     * @param frames frames, possibly ragged
+     * @return a source reading the positions of the DataPoints
+     */
+    public static FrameSource source(DataPoint[][] frames) {
+        double[] bounds = FrameSelection.bounds(frames);
+        return new FrameSource() {
+            @Override
+            public int getFrameCount() {
+                return frames.length;
+            }
+
+            @Override
+            public double[] getBounds() {
+                return bounds;
+            }
+
+            @Override
+            public int getSize(int frame) {
+                return frames[frame].length;
+            }
+
+            @Override
+            public void load(int frame, double[] xs, double[] ys) {
+                CurveKernels.extract(frames[frame], xs, ys);
+            }
+        };
+    }
+
+}
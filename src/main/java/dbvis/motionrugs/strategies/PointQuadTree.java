@@ -218,4 +218,39 @@ public class PointQuadTree< T> {
         return list;
     }
 
+    /**
+     * Range query for all elements within a rectangle, borders included
+     *
+     * @param minX min x of the rectangle
+     * @param minY min y of the rectangle
+     * @param maxX max x of the rectangle
+     * @param maxY max y of the rectangle
+     * @param found receives the elements
+     */
+    public void query(int minX, int minY, int maxX, int maxY, ArrayList<T> found) {
+        Stack<Node> stack = new Stack<>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.empty()) {
+            Node node = stack.pop();
+            if (node.p.x >= minX && node.p.x <= maxX && node.p.y >= minY && node.p.y <= maxY) {
+                found.add(node.value);
+            }
+            //subtrees left of the node have smaller x, the ones below smaller y
+            if (node.SW != null && minX < node.p.x && minY < node.p.y) {
+                stack.push(node.SW);
+            }
+            if (node.NW != null && minX < node.p.x && maxY >= node.p.y) {
+                stack.push(node.NW);
+            }
+            if (node.SE != null && maxX >= node.p.x && minY < node.p.y) {
+                stack.push(node.SE);
+            }
+            if (node.NE != null && maxX >= node.p.x && maxY >= node.p.y) {
+                stack.push(node.NE);
+            }
+        }
+    }
+
 }
@@ -16,8 +16,7 @@
 package dbvis.motionrugs.strategies;
 
 import dbvis.motionrugs.data.DataPoint;
-import java.awt.Point;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * QuadTree parent strategy. Can be used for different implementation (e.g.
@@ -28,7 +27,7 @@ import java.util.ArrayList;
  * @author Juri Buchmüller, University of Konstanz
  * <buchmueller@dbvis.inf.uni-konstanz.de>
  */
-public class QuadTreeStrategy implements Strategy {
+public class QuadTreeStrategy implements FrameStrategy {
 
     @Override
     public String getName() {
@@ -37,26 +36,113 @@ public class QuadTreeStrategy implements Strategy {
 
     @Override
     public DataPoint[][] getOrderedValues(DataPoint[][] unsorted) {
-        DataPoint[][] result = new DataPoint[unsorted.length][unsorted[0].length];
+        //frames may differ in length, e.g. for selections of an area
+        return FrameStrategy.orderFrames(this, unsorted);
+    }
+
+    @Override
+    public FrameOrdering prepare(double[] bounds) {
+        return (xs, ys, n, context, perm) -> {
+            if (n > 0) {
+                Tree tree = context.get(Tree.class, Tree::new);
+                tree.build(xs, ys, n);
+                tree.inorder(perm);
+            }
+        };
+    }
+
+    /**
+     * Point QuadTree in arrays, with the same structure and inorder
+     * traversal as the PointQuadTree. Node i holds position i, node 0 is the
+     * root. Insertion and traversal are iterative, so degenerate trees of
+     * many equal positions do not overflow the stack.
+     */
+    private static final class Tree {
 
-        for (int x = 0; x < unsorted.length; x++) {
-            // create the quadtree and insert the elements
-            PointQuadTree quadTree = new PointQuadTree();
+        private int[] px = new int[0];
+        private int[] py = new int[0];
+        private int[] nw = new int[0];
+        private int[] ne = new int[0];
+        private int[] sw = new int[0];
+        private int[] se = new int[0];
+        private int[] stackNode = new int[0];
+        private int[] stackStage = new int[0];
+        private int n;
 
-            for (int y = 0; y < unsorted[x].length; y++) {
-                quadTree.insert(new Point((int) unsorted[x][y].getX(), (int) unsorted[x][y].getY()), unsorted[x][y]);
+        void build(double[] xs, double[] ys, int n) {
+            if (px.length < n) {
+                px = new int[n];
+                py = new int[n];
+                nw = new int[n];
+                ne = new int[n];
+                sw = new int[n];
+                se = new int[n];
+                stackNode = new int[n];
+                stackStage = new int[n];
             }
-            //return the inorder traversal
-            ArrayList<DataPoint> list = quadTree.inorderTraversal();
+            this.n = n;
+            Arrays.fill(nw, 0, n, -1);
+            Arrays.fill(ne, 0, n, -1);
+            Arrays.fill(sw, 0, n, -1);
+            Arrays.fill(se, 0, n, -1);
+            for (int i = 0; i < n; i++) {
+                px[i] = (int) xs[i];
+                py[i] = (int) ys[i];
+            }
+            for (int i = 1; i < n; i++) {
+                int node = 0;
+                while (true) {
+                    int[] children;
+                    if (px[i] < px[node]) {
+                        children = py[i] < py[node] ? sw : nw;
+                    } else {
+                        children = py[i] < py[node] ? se : ne;
+                    }
+                    if (children[node] < 0) {
+                        children[node] = i;
+                        break;
+                    }
+                    node = children[node];
+                }
+            }
+        }
 
-            //System.out.println(list.size());
-            for (int y = 0; y < list.size(); y++) {
-                if (list.get(y) != null) {
-                    result[x][y] = list.get(y);
+        /**
+         * Writes the nodes in the order NW, NE, node, SW, SE
+         */
+        void inorder(int[] perm) {
+            int count = 0;
+            int top = 0;
+            stackNode[top] = 0;
+            stackStage[top++] = 0;
+            while (top > 0) {
+                int node = stackNode[top - 1];
+                int child = -1;
+                switch (stackStage[top - 1]++) {
+                    case 0:
+                        child = nw[node];
+                        break;
+                    case 1:
+                        child = ne[node];
+                        break;
+                    case 2:
+                        perm[count++] = node;
+                        break;
+                    case 3:
+                        child = sw[node];
+                        break;
+                    case 4:
+                        child = se[node];
+                        break;
+                    default:
+                        top--;
+                }
+                if (child >= 0) {
+                    stackNode[top] = child;
+                    stackStage[top++] = 0;
                 }
             }
         }
-        return result;
     }
 
 }
@@ -27,7 +27,7 @@ import java.util.List;
  * @author Eren Cakmak, University of Konstanz <cakmak@dbvis.inf.uni-konstanz.de>
  * @author Juri Buchmüller, University of Konstanz <buchmueller@dbvis.inf.uni-konstanz.de>
  */
-public class RTreeStrategy implements Strategy {
+public class RTreeStrategy implements FrameStrategy {
 
     @Override
     public String getName() {
@@ -36,24 +36,24 @@ public class RTreeStrategy implements Strategy {
 
     @Override
     public DataPoint[][] getOrderedValues(DataPoint[][] unsorted) {
-        DataPoint[][] result = new DataPoint[unsorted.length][unsorted[0].length];
-
-        for (int x = 0; x < unsorted.length; x++) {
-            //create R*-tree
-            RTree<DataPoint, Point> tree = RTree.star().minChildren(15).maxChildren(30).create();
+        //frames may differ in length, e.g. for selections of an area
+        return FrameStrategy.orderFrames(this, unsorted);
+    }
 
-            //add the points
-            for (int y = 0; y < unsorted[x].length; y++) {
-                tree = tree.add(unsorted[x][y], Geometries.point(unsorted[x][y].getX(), unsorted[x][y].getY()));
+    @Override
+    public FrameOrdering prepare(double[] bounds) {
+        //the tree is immutable, so unlike the other strategies this one
+        //allocates per frame
+        return (xs, ys, n, context, perm) -> {
+            RTree<Integer, Point> tree = RTree.star().minChildren(15).maxChildren(30).create();
+            for (int y = 0; y < n; y++) {
+                tree = tree.add(y, Geometries.point(xs[y], ys[y]));
             }
-            List<Entry<DataPoint, Point>> list = tree.entries().toList().toBlocking().single();
-
-            for (int y = 0; y < unsorted[x].length; y++) {
-                result[x][y] = list.get(y).value();
+            List<Entry<Integer, Point>> list = tree.entries().toList().toBlocking().single();
+            for (int y = 0; y < n; y++) {
+                perm[y] = list.get(y).value();
             }
-        }
-
-        return result;
+        };
     }
 
 }
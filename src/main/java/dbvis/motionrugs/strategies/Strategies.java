@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Juri Buchmueller <motionrugs@dbvis.inf.uni-konstanz.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dbvis.motionrugs.strategies;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates the strategies of the GUI menu, so batch runs, live rugs and
+ * benchmarks order like the GUI.
+ *
+ * @author Juri Buchmüller, University of Konstanz
+ * <buchmueller@dbvis.inf.uni-konstanz.de>
+ */
+public class Strategies {
+
+    /**
+     * The hilbert order of the Hilbert curve, clamped to the largest order
+     * supported
+     */
+    public static final int HILBERT_ORDER = 100;
+
+    private Strategies() {
+    }
+
+    /**
+     * Creates new instances of all strategies, in the order of the GUI menu.
+     * New strategies are added here.
+     *
+     * @return the strategies
+     */
+    public static List<Strategy> createAll() {
+        return Arrays.asList(new HilbertCurveStrategy(HILBERT_ORDER), new QuadTreeStrategy(), new RTreeStrategy(), new ZOrderCurveStrategy(),
+                new GridCurveStrategy(GridCurveStrategy.Curve.HILBERT, GridCurveStrategy.DEFAULT_BITS),
+                new GridCurveStrategy(GridCurveStrategy.Curve.MORTON, GridCurveStrategy.DEFAULT_BITS));
+    }
+
+    /**
+     * Creates a new instance of a strategy
+     *
+     * @param name the name of the strategy
+     * @return the strategy, null if there is none of that name
+     */
+    public static Strategy create(String name) {
+        for (Strategy strategy : createAll()) {
+            if (strategy.getName().equals(name)) {
+                return strategy;
+            }
+        }
+        return null;
+    }
+
+}